@@ -28,8 +28,10 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 
 import io.elastest.eus.service.DockerService;
 import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
 import io.elastest.eus.service.RecordingService;
 import io.elastest.eus.service.SessionService;
+import io.elastest.eus.session.RevisionLog;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 /**
@@ -51,12 +53,17 @@ public class EusSpringBootApp implements WebSocketConfigurer {
     private DockerService dockerService;
     private JsonService jsonService;
     private RecordingService recordingService;
+    private MetricsService metricsService;
+    private RevisionLog revisionLog;
 
     public EusSpringBootApp(DockerService dockerService,
-            JsonService jsonService, RecordingService recordingService) {
+            JsonService jsonService, RecordingService recordingService,
+            MetricsService metricsService, RevisionLog revisionLog) {
         this.dockerService = dockerService;
         this.jsonService = jsonService;
         this.recordingService = recordingService;
+        this.metricsService = metricsService;
+        this.revisionLog = revisionLog;
     }
 
     @Override
@@ -67,7 +74,8 @@ public class EusSpringBootApp implements WebSocketConfigurer {
 
     @Bean
     public SessionService sessionService() {
-        return new SessionService(dockerService, jsonService, recordingService);
+        return new SessionService(dockerService, jsonService, recordingService,
+                metricsService, revisionLog);
     }
 
     public static void main(String[] args) {
@@ -18,13 +18,14 @@ package io.elastest.eus.api;
 
 import static org.springframework.web.bind.annotation.RequestMethod.DELETE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.HEAD;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import org.springframework.http.HttpEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -211,8 +212,8 @@ public interface EusApi {
             @ApiResponse(code = 500, message = "Internal server error", response = String.class) })
     @RequestMapping(value = "/session/**", produces = {
             "application/json" }, method = { GET, POST, DELETE })
-    ResponseEntity<String> session(HttpEntity<String> httpEntity,
-            HttpServletRequest request);
+    ResponseEntity<String> session(HttpServletRequest request,
+            HttpServletResponse response);
 
     /**
      * GET /status
@@ -228,6 +229,43 @@ public interface EusApi {
             "application/json" }, method = { GET })
     ResponseEntity<String> getStatus();
 
+    /**
+     * GET /metrics
+     *
+     * Metrics of the service in Prometheus format
+     */
+    @ApiOperation(value = "Get metrics (Prometheus format)", notes = "", response = String.class, tags = {
+            "Monitoring" })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation", response = String.class),
+            @ApiResponse(code = 500, message = "Internal server error", response = String.class) })
+    @RequestMapping(value = "/metrics", produces = {
+            "text/plain" }, method = { GET })
+    ResponseEntity<String> getMetrics();
+
+    /**
+     * GET /recording
+     *
+     * Query of stored recordings (filtered, sorted and paged)
+     */
+    @ApiOperation(value = "Query recordings", notes = "", response = String.class, tags = {
+            "Remote control" })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation", response = String.class),
+            @ApiResponse(code = 400, message = "Invalid query", response = String.class),
+            @ApiResponse(code = 500, message = "Internal server error", response = String.class) })
+    @RequestMapping(value = "/recording", produces = {
+            "application/json" }, method = { GET })
+    ResponseEntity<String> getRecordings(
+            @ApiParam(value = "Browser name") @RequestParam(value = "browser", required = false) String browser,
+            @ApiParam(value = "Browser version") @RequestParam(value = "version", required = false) String version,
+            @ApiParam(value = "Created from (epoch milliseconds)", defaultValue = "0") @RequestParam(value = "from", required = false, defaultValue = "0") Long from,
+            @ApiParam(value = "Created until (epoch milliseconds)") @RequestParam(value = "to", required = false) Long to,
+            @ApiParam(value = "Sort field (creationTime, browser, version or id)", defaultValue = "creationTime") @RequestParam(value = "sort", required = false, defaultValue = "creationTime") String sort,
+            @ApiParam(value = "Sort order (asc or desc)", defaultValue = "desc") @RequestParam(value = "order", required = false, defaultValue = "desc") String order,
+            @ApiParam(value = "Page number (starting at 0)", defaultValue = "0") @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
+            @ApiParam(value = "Page size", defaultValue = "20") @RequestParam(value = "size", required = false, defaultValue = "20") Integer size);
+
     /**
      * GET /session/{sessionId}/vnc
      *
@@ -261,4 +299,24 @@ public interface EusApi {
             @ApiParam(value = "Session identifier (previously established)", required = true) @PathVariable("sessionId") String sessionId,
             HttpServletRequest request);
 
+    /**
+     * GET/HEAD /recording/{sessionId}
+     *
+     * Download recording (supporting byte ranges and conditional requests)
+     */
+    @ApiOperation(value = "Download recording", notes = "", tags = {
+            "Remote control" })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 206, message = "Partial content"),
+            @ApiResponse(code = 304, message = "Not modified"),
+            @ApiResponse(code = 404, message = "Recording not found"),
+            @ApiResponse(code = 416, message = "Range not satisfiable"),
+            @ApiResponse(code = 500, message = "Internal server error") })
+    @RequestMapping(value = "/recording/{sessionId}", produces = {
+            "video/mp4" }, method = { GET, HEAD })
+    void downloadRecording(
+            @ApiParam(value = "Session identifier (previously established)", required = true) @PathVariable("sessionId") String sessionId,
+            HttpServletRequest request, HttpServletResponse response);
+
 }
@@ -17,17 +17,18 @@
 package io.elastest.eus.api;
 
 import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.OK;
 
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -45,7 +46,11 @@ import io.elastest.eus.api.model.Latency;
 import io.elastest.eus.api.model.Quality;
 import io.elastest.eus.api.model.StatsValue;
 import io.elastest.eus.api.model.UserMedia;
+import io.elastest.eus.recording.RecordingQuery;
+import io.elastest.eus.recording.RecordingQuery.SortField;
+import io.elastest.eus.service.MetricsService;
 import io.elastest.eus.service.RecordingService;
+import io.elastest.eus.service.SessionService;
 import io.elastest.eus.service.VncService;
 import io.elastest.eus.service.WebDriverService;
 import io.swagger.annotations.ApiParam;
@@ -65,13 +70,18 @@ public class EusController implements EusApi {
     private WebDriverService webDriverService;
     private VncService vncService;
     private RecordingService recordingService;
+    private MetricsService metricsService;
+    private SessionService sessionService;
 
     @Autowired
     public EusController(WebDriverService webDriverService,
-            VncService vncService, RecordingService recordingService) {
+            VncService vncService, RecordingService recordingService,
+            MetricsService metricsService, SessionService sessionService) {
         this.webDriverService = webDriverService;
         this.vncService = vncService;
         this.recordingService = recordingService;
+        this.metricsService = metricsService;
+        this.sessionService = sessionService;
     }
 
     public ResponseEntity<Void> deleteSubscription(
@@ -178,18 +188,18 @@ public class EusController implements EusApi {
     }
 
     @Override
-    public ResponseEntity<String> session(HttpEntity<String> httpEntity,
-            HttpServletRequest request) {
-        ResponseEntity<String> response;
+    public ResponseEntity<String> session(HttpServletRequest request,
+            HttpServletResponse response) {
+        ResponseEntity<String> responseEntity;
         try {
-            response = webDriverService.session(httpEntity, request);
+            responseEntity = webDriverService.session(request, response);
         } catch (Exception e) {
             String errorMessage = "Exception handling session";
             log.error(errorMessage, e);
-            response = new ResponseEntity<>(errorMessage,
+            responseEntity = new ResponseEntity<>(errorMessage,
                     INTERNAL_SERVER_ERROR);
         }
-        return response;
+        return responseEntity;
     }
 
     @Override
@@ -206,6 +216,57 @@ public class EusController implements EusApi {
         return response;
     }
 
+    @Override
+    public ResponseEntity<String> getRecordings(
+            @ApiParam(value = "Browser name") @RequestParam(value = "browser", required = false) String browser,
+            @ApiParam(value = "Browser version") @RequestParam(value = "version", required = false) String version,
+            @ApiParam(value = "Created from (epoch milliseconds)", defaultValue = "0") @RequestParam(value = "from", required = false, defaultValue = "0") Long from,
+            @ApiParam(value = "Created until (epoch milliseconds)") @RequestParam(value = "to", required = false) Long to,
+            @ApiParam(value = "Sort field (creationTime, browser, version or id)", defaultValue = "creationTime") @RequestParam(value = "sort", required = false, defaultValue = "creationTime") String sort,
+            @ApiParam(value = "Sort order (asc or desc)", defaultValue = "desc") @RequestParam(value = "order", required = false, defaultValue = "desc") String order,
+            @ApiParam(value = "Page number (starting at 0)", defaultValue = "0") @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
+            @ApiParam(value = "Page size", defaultValue = "20") @RequestParam(value = "size", required = false, defaultValue = "20") Integer size) {
+        log.debug(
+                "[getRecordings] browser={} version={} from={} to={} sort={} order={} page={} size={}",
+                browser, version, from, to, sort, order, page, size);
+
+        SortField sortField;
+        try {
+            sortField = SortField.valueOf(sort.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>("Invalid sort field " + sort,
+                    BAD_REQUEST);
+        }
+
+        ResponseEntity<String> response;
+        try {
+            RecordingQuery query = new RecordingQuery(browser, version, from,
+                    to != null ? to : Long.MAX_VALUE, sortField,
+                    order.equalsIgnoreCase("asc"), page, size);
+            response = recordingService.getRecordings(query);
+        } catch (Exception e) {
+            String errorMessage = "Exception getting recordings";
+            log.error(errorMessage, e);
+            response = new ResponseEntity<>(errorMessage,
+                    INTERNAL_SERVER_ERROR);
+        }
+        return response;
+    }
+
+    @Override
+    public ResponseEntity<String> getMetrics() {
+        ResponseEntity<String> response;
+        try {
+            response = new ResponseEntity<>(metricsService.scrape(), OK);
+        } catch (Exception e) {
+            String errorMessage = "Exception getting metrics";
+            log.error(errorMessage, e);
+            response = new ResponseEntity<>(errorMessage,
+                    INTERNAL_SERVER_ERROR);
+        }
+        return response;
+    }
+
     @Override
     public ResponseEntity<String> vnc(
             @ApiParam(value = "Session identifier (previously established)", required = true) @PathVariable("sessionId") String sessionId) {
@@ -233,6 +294,7 @@ public class EusController implements EusApi {
             } else {
                 // The only option here is DELETE method
                 response = recordingService.deleteRecording(sessionId);
+                sessionService.sendRemoveRecordingToAllClients(sessionId);
             }
         } catch (Exception e) {
             String errorMessage = "Exception handling recording";
@@ -243,4 +305,18 @@ public class EusController implements EusApi {
         return response;
     }
 
+    @Override
+    public void downloadRecording(
+            @ApiParam(value = "Session identifier (previously established)", required = true) @PathVariable("sessionId") String sessionId,
+            HttpServletRequest request, HttpServletResponse response) {
+        try {
+            recordingService.downloadRecording(sessionId, request, response);
+        } catch (Exception e) {
+            log.error("Exception downloading recording {}", sessionId, e);
+            if (!response.isCommitted()) {
+                response.setStatus(INTERNAL_SERVER_ERROR.value());
+            }
+        }
+    }
+
 }
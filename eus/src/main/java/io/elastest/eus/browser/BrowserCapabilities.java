@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.browser;
+
+/**
+ * Immutable capabilities of a new session request (browser, version,
+ * platform and live flag), extracted from the request payload at once.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class BrowserCapabilities {
+
+    private final String browserName;
+    private final String version;
+    private final String platform;
+    private final boolean live;
+
+    public BrowserCapabilities(String browserName, String version,
+            String platform, boolean live) {
+        this.browserName = browserName;
+        this.version = version;
+        this.platform = platform;
+        this.live = live;
+    }
+
+    public String getBrowserName() {
+        return browserName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    @Override
+    public String toString() {
+        return "BrowserCapabilities [browserName=" + browserName
+                + ", version=" + version + ", platform=" + platform
+                + ", live=" + live + "]";
+    }
+
+}
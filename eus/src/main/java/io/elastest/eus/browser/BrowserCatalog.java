@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.browser;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable index of the browser catalog (browser, version and platform to
+ * Docker image). Keys are indexed by browser, then platform, then a sorted map
+ * of versions, so that lookups do not scan the whole catalog. Versions can be
+ * requested as exact values (e.g. 59 or 59.0.3071), as "latest" (or empty),
+ * or as ranges with interval notation (e.g. [57,59), [58,)).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class BrowserCatalog {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(BrowserCatalog.class);
+
+    public static final String LATEST = "latest";
+
+    private Map<String, String> dockerImages;
+    private Map<String, Map<String, NavigableMap<BrowserVersion, String>>> index = new HashMap<>();
+
+    public BrowserCatalog(Map<String, String> entries, String separator) {
+        Map<String, String> images = new LinkedHashMap<>();
+        Pattern separatorPattern = Pattern.compile(Pattern.quote(separator));
+
+        for (Entry<String, String> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            String[] split = separatorPattern.split(key);
+            if (split.length != 3) {
+                log.warn("Ignoring invalid browser key {}", key);
+                continue;
+            }
+            index.computeIfAbsent(normalize(split[0]), b -> new HashMap<>())
+                    .computeIfAbsent(normalize(split[2]),
+                            p -> new TreeMap<>())
+                    .put(new BrowserVersion(split[1]), key);
+            images.put(key, entry.getValue());
+        }
+        dockerImages = unmodifiableMap(images);
+    }
+
+    /**
+     * Find the key of the newest browser matching the given capabilities.
+     * Null platform means any platform.
+     */
+    public String findKey(String browserName, String version,
+            String platform) {
+        Map<String, NavigableMap<BrowserVersion, String>> platforms = index
+                .get(normalize(browserName));
+        if (platforms == null) {
+            return null;
+        }
+
+        List<NavigableMap<BrowserVersion, String>> candidates = new ArrayList<>();
+        if (platform == null) {
+            candidates.addAll(platforms.values());
+        } else if (platforms.containsKey(normalize(platform))) {
+            candidates.add(platforms.get(normalize(platform)));
+        }
+
+        Entry<BrowserVersion, String> out = null;
+        for (NavigableMap<BrowserVersion, String> versions : candidates) {
+            Entry<BrowserVersion, String> match = findVersion(versions,
+                    version);
+            if (match != null && (out == null
+                    || match.getKey().compareTo(out.getKey()) > 0)) {
+                out = match;
+            }
+        }
+        return out != null ? out.getValue() : null;
+    }
+
+    public String getDockerImage(String key) {
+        return dockerImages.get(key);
+    }
+
+    public Set<String> getKeys() {
+        return unmodifiableSet(dockerImages.keySet());
+    }
+
+    public Collection<String> getDockerImages() {
+        return dockerImages.values();
+    }
+
+    public int size() {
+        return dockerImages.size();
+    }
+
+    private Entry<BrowserVersion, String> findVersion(
+            NavigableMap<BrowserVersion, String> versions, String version) {
+        if (versions.isEmpty()) {
+            return null;
+        }
+        if (version == null || version.isEmpty()
+                || version.equalsIgnoreCase(LATEST)) {
+            return versions.lastEntry();
+        }
+        if (version.startsWith("[") || version.startsWith("(")) {
+            return findVersionInRange(versions, version);
+        }
+
+        // More specific versions (e.g. 59.0.3071) match the catalog version
+        // with the longest common prefix (e.g. 59)
+        String prefix = version;
+        while (true) {
+            BrowserVersion browserVersion = new BrowserVersion(prefix);
+            String key = versions.get(browserVersion);
+            if (key != null) {
+                return new SimpleImmutableEntry<>(browserVersion, key);
+            }
+            int dot = prefix.lastIndexOf('.');
+            if (dot == -1) {
+                return null;
+            }
+            prefix = prefix.substring(0, dot);
+        }
+    }
+
+    private Entry<BrowserVersion, String> findVersionInRange(
+            NavigableMap<BrowserVersion, String> versions, String range) {
+        int comma = range.indexOf(',');
+        char last = range.charAt(range.length() - 1);
+        if (comma == -1 || (last != ']' && last != ')')) {
+            log.warn("Invalid version range {}", range);
+            return null;
+        }
+        String lower = range.substring(1, comma).trim();
+        String upper = range.substring(comma + 1, range.length() - 1).trim();
+
+        NavigableMap<BrowserVersion, String> subMap = versions;
+        if (!lower.isEmpty()) {
+            subMap = subMap.tailMap(new BrowserVersion(lower),
+                    range.charAt(0) == '[');
+        }
+        if (!upper.isEmpty()) {
+            subMap = subMap.headMap(new BrowserVersion(upper), last == ']');
+        }
+        return subMap.lastEntry();
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toUpperCase();
+    }
+
+    /**
+     * Browser version compared by its dot-separated components (numerically
+     * when possible, e.g. 9 < 59 < 100).
+     */
+    static class BrowserVersion implements Comparable<BrowserVersion> {
+        private final String[] components;
+
+        BrowserVersion(String version) {
+            components = version.trim().split("\\.");
+        }
+
+        @Override
+        public int compareTo(BrowserVersion other) {
+            int length = Math.min(components.length, other.components.length);
+            for (int i = 0; i < length; i++) {
+                int compare = compareComponent(components[i],
+                        other.components[i]);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return Integer.compare(components.length,
+                    other.components.length);
+        }
+
+        private int compareComponent(String a, String b) {
+            if (isNumeric(a) && isNumeric(b)) {
+                int compare = Integer.compare(a.length(), b.length());
+                return compare != 0 ? compare : a.compareTo(b);
+            }
+            return a.compareTo(b);
+        }
+
+        private boolean isNumeric(String value) {
+            if (value.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof BrowserVersion
+                    && compareTo((BrowserVersion) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return String.join(".", components).hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.join(".", components);
+        }
+    }
+
+}
@@ -36,10 +36,14 @@ public class MvcConfig implements WebMvcConfigurer {
     @Value("${registry.folder}")
     private String registryFolder;
 
+    @Value("${registry.cache.folder}")
+    private String registryCacheFolder;
+
     @Override
     public void addResourceHandlers(final ResourceHandlerRegistry registry) {
         registry.addResourceHandler(registryContextPath + "/**")
-                .addResourceLocations("file:" + registryFolder);
+                .addResourceLocations("file:" + registryFolder,
+                        "file:" + registryCacheFolder);
     }
 
 }
\ No newline at end of file
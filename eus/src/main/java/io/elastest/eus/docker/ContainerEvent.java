@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.docker;
+
+/**
+ * Container lifecycle events that can be awaited.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public enum ContainerEvent {
+
+    CREATED, STARTED, HEALTHY, DIED, DESTROYED;
+
+    public static ContainerEvent fromAction(String action) {
+        if (action == null) {
+            return null;
+        }
+        if (action.equals("create")) {
+            return CREATED;
+        }
+        if (action.equals("start")) {
+            return STARTED;
+        }
+        if (action.equals("health_status: healthy")) {
+            return HEALTHY;
+        }
+        if (action.equals("die")) {
+            return DIED;
+        }
+        if (action.equals("destroy")) {
+            return DESTROYED;
+        }
+        return null;
+    }
+
+    public boolean isTerminal() {
+        return this == DIED || this == DESTROYED;
+    }
+
+}
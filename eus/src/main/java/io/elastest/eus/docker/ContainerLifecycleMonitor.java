@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.docker;
+
+import static com.github.dockerjava.api.model.EventType.CONTAINER;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.core.command.EventsResultCallback;
+
+/**
+ * Container lifecycle monitor based on the Docker events stream. Callers
+ * register a future for a given container and event, which is completed when
+ * the event is received (or exceptionally when the container dies before).
+ * Listeners can also be registered to receive every container event.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class ContainerLifecycleMonitor {
+
+    private final Logger log = LoggerFactory
+            .getLogger(ContainerLifecycleMonitor.class);
+
+    private DockerClient dockerClient;
+    private long reconnectTimeMs;
+
+    private Map<String, Map<ContainerEvent, CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+    private List<ContainerEventListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService reconnectExecutor = newSingleThreadScheduledExecutor();
+    private volatile EventsResultCallback eventsCallback;
+    private volatile boolean connected = false;
+    private volatile boolean closed = false;
+
+    public ContainerLifecycleMonitor(DockerClient dockerClient,
+            long reconnectTimeMs) {
+        this.dockerClient = dockerClient;
+        this.reconnectTimeMs = reconnectTimeMs;
+    }
+
+    public void start() {
+        log.debug("Subscribing to Docker events");
+        eventsCallback = dockerClient.eventsCmd()
+                .withEventFilter("create", "start", "die", "destroy",
+                        "health_status")
+                .exec(new EventsResultCallback() {
+                    @Override
+                    public void onStart(Closeable stream) {
+                        super.onStart(stream);
+                        connected = true;
+                        log.trace("Subscribed to Docker events");
+                        notifyConnection(true);
+                    }
+
+                    @Override
+                    public void onNext(Event event) {
+                        handleEvent(event);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        connected = false;
+                        log.warn("Error in Docker events stream: {}",
+                                throwable.getMessage());
+                        notifyConnection(false);
+                        super.onError(throwable);
+                        reconnect();
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        connected = false;
+                        notifyConnection(false);
+                        super.onComplete();
+                        reconnect();
+                    }
+                });
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        connected = false;
+        reconnectExecutor.shutdownNow();
+        if (eventsCallback != null) {
+            eventsCallback.close();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public void addListener(ContainerEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public CompletableFuture<Void> await(String containerName,
+            ContainerEvent containerEvent) {
+        CompletableFuture<Void> future = waiters
+                .computeIfAbsent(containerName,
+                        name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(containerEvent,
+                        event -> new CompletableFuture<>());
+        future.whenComplete((result, throwable) -> remove(containerName,
+                containerEvent, future));
+        return future;
+    }
+
+    private void remove(String containerName, ContainerEvent containerEvent,
+            CompletableFuture<Void> future) {
+        Map<ContainerEvent, CompletableFuture<Void>> containerWaiters = waiters
+                .get(containerName);
+        if (containerWaiters != null) {
+            containerWaiters.remove(containerEvent, future);
+            if (containerWaiters.isEmpty()) {
+                waiters.remove(containerName, containerWaiters);
+            }
+        }
+    }
+
+    private void handleEvent(Event event) {
+        // Networks and volumes also have create and destroy events (with a
+        // name), and this version of the client cannot filter them by type.
+        // Events without type (old Docker versions) are container events
+        if (event.getType() != null && event.getType() != CONTAINER) {
+            return;
+        }
+        String action = event.getAction() != null ? event.getAction()
+                : event.getStatus();
+        ContainerEvent containerEvent = ContainerEvent.fromAction(action);
+        if (containerEvent == null || event.getActor() == null
+                || event.getActor().getAttributes() == null) {
+            return;
+        }
+        String containerName = event.getActor().getAttributes().get("name");
+        log.trace("Docker event {} in container {}", action, containerName);
+        for (ContainerEventListener listener : listeners) {
+            listener.onEvent(containerName, containerEvent);
+        }
+
+        Map<ContainerEvent, CompletableFuture<Void>> containerWaiters = waiters
+                .get(containerName);
+        if (containerWaiters == null) {
+            return;
+        }
+        for (Map.Entry<ContainerEvent, CompletableFuture<Void>> entry : containerWaiters
+                .entrySet()) {
+            if (entry.getKey() == containerEvent) {
+                entry.getValue().complete(null);
+            } else if (containerEvent.isTerminal()) {
+                entry.getValue().completeExceptionally(new DockerException(
+                        "Container " + containerName + " died"));
+            }
+        }
+    }
+
+    private void notifyConnection(boolean isConnected) {
+        for (ContainerEventListener listener : listeners) {
+            listener.onConnectionChange(isConnected);
+        }
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        log.debug("Reconnecting to Docker events in {} ms", reconnectTimeMs);
+        reconnectExecutor.schedule(() -> {
+            try {
+                start();
+            } catch (Exception e) {
+                log.warn("Exception subscribing to Docker events: {}",
+                        e.getMessage());
+                reconnect();
+            }
+        }, reconnectTimeMs, MILLISECONDS);
+    }
+
+}
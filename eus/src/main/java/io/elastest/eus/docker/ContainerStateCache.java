@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.docker;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of container state (exists/running). Entries updated from
+ * Docker events are trusted while the events stream is connected; entries
+ * obtained by inspecting containers (or updated while the events stream is
+ * disconnected) expire after a TTL.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class ContainerStateCache implements ContainerEventListener {
+
+    private final Logger log = LoggerFactory
+            .getLogger(ContainerStateCache.class);
+
+    // Expired entries are purged when the cache reaches this size
+    private static final int PURGE_THRESHOLD = 1024;
+
+    private long ttlNanos;
+    private volatile boolean eventsConnected = false;
+
+    private Map<String, ContainerState> states = new ConcurrentHashMap<>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    public ContainerStateCache(long ttlMs) {
+        this.ttlNanos = MILLISECONDS.toNanos(ttlMs);
+    }
+
+    @Override
+    public void onEvent(String containerName, ContainerEvent containerEvent) {
+        update(containerName, containerEvent, true);
+    }
+
+    @Override
+    public void onConnectionChange(boolean connected) {
+        // Events might have been missed while disconnected
+        log.trace("Invalidating container state cache (events connected {})",
+                connected);
+        states.clear();
+        eventsConnected = connected;
+    }
+
+    public void update(String containerName, ContainerEvent containerEvent) {
+        update(containerName, containerEvent, false);
+    }
+
+    private void update(String containerName, ContainerEvent containerEvent,
+            boolean trusted) {
+        switch (containerEvent) {
+        case CREATED:
+        case DIED:
+            put(containerName, new ContainerState(true, false, trusted));
+            break;
+        case STARTED:
+        case HEALTHY:
+            put(containerName, new ContainerState(true, true, trusted));
+            break;
+        case DESTROYED:
+            put(containerName, new ContainerState(false, false, trusted));
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void inspected(String containerName, boolean exists,
+            boolean running, long inspectStartNanos) {
+        // An event received after starting the inspection is more recent
+        states.compute(containerName,
+                (name, state) -> state != null && state.trusted
+                        && state.timestamp - inspectStartNanos >= 0 ? state
+                                : new ContainerState(exists, running, false));
+        purgeIfNecessary();
+    }
+
+    public void invalidate(String containerName) {
+        states.remove(containerName);
+    }
+
+    public Optional<Boolean> isRunning(String containerName) {
+        ContainerState state = getState(containerName);
+        return state != null ? Optional.of(state.running) : Optional.empty();
+    }
+
+    public Optional<Boolean> exists(String containerName) {
+        ContainerState state = getState(containerName);
+        return state != null ? Optional.of(state.exists) : Optional.empty();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    private ContainerState getState(String containerName) {
+        ContainerState state = states.get(containerName);
+        if (state != null && isExpired(state, nanoTime())) {
+            states.remove(containerName, state);
+            state = null;
+        }
+        if (state != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return state;
+    }
+
+    private void put(String containerName, ContainerState state) {
+        states.put(containerName, state);
+        purgeIfNecessary();
+    }
+
+    private boolean isExpired(ContainerState state, long now) {
+        return !(state.trusted && eventsConnected)
+                && now - state.timestamp > ttlNanos;
+    }
+
+    private void purgeIfNecessary() {
+        if (states.size() > PURGE_THRESHOLD) {
+            long now = nanoTime();
+            states.values().removeIf(state -> isExpired(state, now)
+                    || (state.trusted && !state.exists));
+        }
+    }
+
+    private static class ContainerState {
+        final boolean exists;
+        final boolean running;
+        final boolean trusted;
+        final long timestamp = nanoTime();
+
+        ContainerState(boolean exists, boolean running, boolean trusted) {
+            this.exists = exists;
+            this.running = running;
+            this.trusted = trusted;
+        }
+    }
+
+}
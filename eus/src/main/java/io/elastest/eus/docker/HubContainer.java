@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.docker;
+
+/**
+ * Started and reachable browser hub container.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class HubContainer {
+    private final String containerName;
+    private final String hubUrl;
+    private final int hubBindPort;
+    private final int hubVncBindPort;
+
+    public HubContainer(String containerName, String hubUrl, int hubBindPort,
+            int hubVncBindPort) {
+        this.containerName = containerName;
+        this.hubUrl = hubUrl;
+        this.hubBindPort = hubBindPort;
+        this.hubVncBindPort = hubVncBindPort;
+    }
+
+    public String getContainerName() {
+        return containerName;
+    }
+
+    public String getHubUrl() {
+        return hubUrl;
+    }
+
+    public int getHubBindPort() {
+        return hubBindPort;
+    }
+
+    public int getHubVncBindPort() {
+        return hubVncBindPort;
+    }
+
+    @Override
+    public String toString() {
+        return containerName + " (" + hubUrl + ")";
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.docker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streaming extractor of a single file from a tar archive (as returned by
+ * Docker when copying files from containers). Entries are read block by
+ * block, and the content of the target entry is transferred to disk through
+ * NIO channels, so memory use does not depend on the size of the archive.
+ * Supported formats are ustar, GNU long names and PAX headers.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class TarExtractor {
+
+    static final int BLOCK_SIZE = 512;
+    static final int SKIP_BUFFER_SIZE = 64 * 1024;
+    static final String PART_EXTENSION = ".part";
+
+    private ReadableByteChannel channel;
+    private ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+
+    public TarExtractor(InputStream inputStream) {
+        this.channel = Channels.newChannel(inputStream);
+    }
+
+    /**
+     * Extract the first regular file whose name (without directories) is
+     * fileName. Returns the size of the file. The content is extracted to a
+     * temporal file in the same folder, which is then moved to the target,
+     * so that a truncated file is never left in the target path.
+     */
+    public long extract(String fileName, Path target) throws IOException {
+        long size = seek(fileName);
+        Path part = Files.createTempFile(target.toAbsolutePath().getParent(),
+                target.getFileName().toString(), PART_EXTENSION);
+        try {
+            transferContent(size, part);
+            Files.move(part, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return size;
+    }
+
+    /**
+     * Skip the archive up to the content of the first regular file whose name
+     * (without directories) is fileName. Returns the size of the file, which
+     * can be read then from the input stream of this extractor (headers are
+     * read block by block, and so the stream is not read ahead).
+     */
+    public long seek(String fileName) throws IOException {
+        String longName = null;
+        while (readBlock()) {
+            if (isEndOfArchive()) {
+                break;
+            }
+            String name = longName != null ? longName : entryName();
+            long size = entrySize();
+            byte type = header.get(156);
+            longName = null;
+
+            if (type == 'L') {
+                // GNU long name: the name of the next entry is the content
+                longName = trimNul(new String(readContent(size), UTF_8));
+            } else if (type == 'x') {
+                // PAX extended header: only the path is relevant here
+                longName = paxPath(new String(readContent(size), UTF_8));
+            } else if ((type == '0' || type == 0)
+                    && baseName(name).equals(fileName)) {
+                return size;
+            } else {
+                skipContent(size);
+            }
+        }
+        throw new DockerException(
+                "File " + fileName + " not found in tar archive");
+    }
+
+    private boolean readBlock() throws IOException {
+        header.clear();
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                if (header.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+        }
+        return true;
+    }
+
+    private boolean isEndOfArchive() {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (header.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String entryName() {
+        String name = field(0, 100);
+        String magic = field(257, 6);
+        if (magic.startsWith("ustar")) {
+            String prefix = field(345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private long entrySize() {
+        if ((header.get(124) & 0x80) != 0) {
+            // Base-256 encoding (GNU) for sizes over 8 GB
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header.get(i) & 0xff);
+            }
+            return size;
+        }
+        String octal = field(124, 12).trim();
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    private String field(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header.get(end) != 0) {
+            end++;
+        }
+        return new String(header.array(), offset, end - offset, UTF_8);
+    }
+
+    private byte[] readContent(long size) throws IOException {
+        if (size > SKIP_BUFFER_SIZE) {
+            throw new DockerException("Tar header too big: " + size);
+        }
+        ByteBuffer content = ByteBuffer.allocate((int) padded(size));
+        while (content.hasRemaining()) {
+            if (channel.read(content) < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+        }
+        byte[] out = new byte[(int) size];
+        System.arraycopy(content.array(), 0, out, 0, (int) size);
+        return out;
+    }
+
+    private void transferContent(long size, Path target) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(target, CREATE,
+                TRUNCATE_EXISTING, WRITE)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = fileChannel.transferFrom(channel, position,
+                        size - position);
+                if (transferred <= 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                position += transferred;
+            }
+        }
+        skip(padded(size) - size);
+    }
+
+    private void skipContent(long size) throws IOException {
+        skip(padded(size));
+    }
+
+    private void skip(long bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer
+                .allocate((int) Math.min(bytes, SKIP_BUFFER_SIZE));
+        long remaining = bytes;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(remaining, buffer.capacity()));
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= read;
+        }
+    }
+
+    private long padded(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private String paxPath(String records) {
+        // Records have the format "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return null;
+    }
+
+    private String trimNul(String string) {
+        int end = string.indexOf(0);
+        return end >= 0 ? string.substring(0, end) : string;
+    }
+
+    private String baseName(String name) {
+        String trimmed = name.endsWith("/")
+                ? name.substring(0, name.length() - 1)
+                : name;
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+    }
+
+}
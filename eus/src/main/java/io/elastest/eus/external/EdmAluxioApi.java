@@ -22,6 +22,7 @@ import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
+import retrofit2.http.Streaming;
 
 /**
  * Alluxio REST service (provided by EDM) API description.
@@ -34,6 +35,7 @@ public interface EdmAluxioApi {
     @POST("/api/v1/paths//{file}/open-file")
     Call<ResponseBody> openFile(@Path("file") String file);
 
+    @Streaming
     @POST("/api/v1/streams/{streamId}/read")
     Call<ResponseBody> readStream(@Path("streamId") String streamId);
 
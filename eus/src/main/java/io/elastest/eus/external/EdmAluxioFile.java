@@ -54,6 +54,10 @@ public class EdmAluxioFile {
         return name;
     }
 
+    public long getLastModificationTimeMs() {
+        return lastModificationTimeMs;
+    }
+
     class FileBlockInfo {
         List<Object> ufsLocations;
         BlockInfo blockInfo;
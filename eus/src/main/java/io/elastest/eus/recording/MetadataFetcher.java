@@ -0,0 +1,182 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrent fetch of recording metadata files. Files are loaded by a bounded
+ * pool of threads and handed to the consumer as they complete (in the caller
+ * thread). The content is cached by file name and modification time, so only
+ * new or modified files are fetched again.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class MetadataFetcher implements Closeable {
+
+    private final Logger log = LoggerFactory.getLogger(MetadataFetcher.class);
+
+    private Loader loader;
+    private long timeoutMs;
+    private ExecutorService fetchExecutor;
+    private Map<String, CachedContent> cache = new ConcurrentHashMap<>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong fetches = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+
+    public MetadataFetcher(Loader loader, int threads, long timeoutMs) {
+        this.loader = loader;
+        this.timeoutMs = timeoutMs;
+        this.fetchExecutor = newFixedThreadPool(threads);
+    }
+
+    /**
+     * Delivers the content of the given files (name to modification time) to
+     * the consumer, in completion order. Files which cannot be fetched are
+     * skipped, and the fetch is abandoned when no file completes within the
+     * timeout (so callers can tell an incomplete fetch by comparing the
+     * result with the number of files).
+     *
+     * @return number of files delivered to the consumer
+     * @throws InterruptedIOException
+     *             if interrupted while waiting for the pending files
+     */
+    public int fetch(Map<String, Long> files, Consumer<String> consumer)
+            throws InterruptedIOException {
+        cache.keySet().retainAll(files.keySet());
+
+        CompletionService<String> completionService = new ExecutorCompletionService<>(
+                fetchExecutor);
+        List<Future<String>> pending = new ArrayList<>();
+        int delivered = 0;
+
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            String fileName = file.getKey();
+            long modificationTime = file.getValue();
+            CachedContent cached = cache.get(fileName);
+            if (cached != null && cached.modificationTime == modificationTime) {
+                hits.incrementAndGet();
+                consumer.accept(cached.content);
+                delivered++;
+            } else {
+                pending.add(completionService
+                        .submit(() -> load(fileName, modificationTime)));
+            }
+        }
+
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                Future<String> future = completionService.poll(timeoutMs,
+                        MILLISECONDS);
+                if (future == null) {
+                    log.warn("Timeout fetching metadata ({} of {} pending)",
+                            pending.size() - i, pending.size());
+                    failures.addAndGet(pending.size() - i);
+                    break;
+                }
+                try {
+                    consumer.accept(future.get());
+                    delivered++;
+                } catch (ExecutionException e) {
+                    failures.incrementAndGet();
+                    log.warn("Exception fetching metadata: {}",
+                            e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fetching metadata");
+        } finally {
+            // Pending calls are not completed after a timeout or interruption
+            pending.forEach(future -> future.cancel(true));
+        }
+
+        return delivered;
+    }
+
+    private String load(String fileName, long modificationTime)
+            throws IOException {
+        fetches.incrementAndGet();
+        String content = loader.load(fileName);
+        cache.put(fileName, new CachedContent(modificationTime, content));
+        return content;
+    }
+
+    public void remove(String fileName) {
+        cache.remove(fileName);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Load of a file not present in the cache (or modified).
+     */
+    @FunctionalInterface
+    public interface Loader {
+        String load(String fileName) throws IOException;
+    }
+
+    private static class CachedContent {
+        final long modificationTime;
+        final String content;
+
+        CachedContent(long modificationTime, String content) {
+            this.modificationTime = modificationTime;
+            this.content = content;
+        }
+    }
+
+}
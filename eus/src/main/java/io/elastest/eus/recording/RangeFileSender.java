@@ -0,0 +1,246 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_PARTIAL_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+import static org.springframework.http.HttpHeaders.ACCEPT_RANGES;
+import static org.springframework.http.HttpHeaders.CONTENT_RANGE;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.HttpHeaders.IF_RANGE;
+import static org.springframework.http.HttpHeaders.LAST_MODIFIED;
+import static org.springframework.http.HttpHeaders.RANGE;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sender of files through HTTP, with support for single byte ranges (RFC
+ * 7233) and conditional requests (ETag and Last-Modified). The content is
+ * sent with sendfile when the servlet container supports it (Tomcat NIO),
+ * and otherwise with FileChannel.transferTo, so that it is never loaded in
+ * memory.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RangeFileSender {
+
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final Logger log = LoggerFactory.getLogger(RangeFileSender.class);
+
+    public void send(Path file, String contentType, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            response.sendError(SC_NOT_FOUND);
+            return;
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        try (FileChannel fileChannel = FileChannel.open(file, READ)) {
+            send(fileChannel, lastModified, file, contentType, request,
+                    response);
+        }
+    }
+
+    /**
+     * Send the content of a file already opened. Sendfile is not used in
+     * this case, since the container would open the file again after
+     * returning (and so it could have been removed in the meantime).
+     */
+    public void send(FileChannel fileChannel, long lastModified,
+            String contentType, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        send(fileChannel, lastModified, null, contentType, request, response);
+    }
+
+    private void send(FileChannel fileChannel, long lastModified, Path file,
+            String contentType, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        long length = fileChannel.size();
+        String etag = "\"" + Long.toHexString(length) + "-"
+                + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader(ACCEPT_RANGES, "bytes");
+        response.setHeader(ETAG, etag);
+        response.setDateHeader(LAST_MODIFIED, lastModified);
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(RANGE);
+        if (range != null && isRangeValid(request, etag, lastModified)) {
+            long[] bytes = parseRange(range, length);
+            if (bytes == null) {
+                // Syntactically wrong or multiple ranges: whole file is sent
+                log.trace("Ignoring range {}", range);
+            } else if (bytes.length == 0) {
+                response.setHeader(CONTENT_RANGE, "bytes */" + length);
+                response.sendError(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            } else {
+                start = bytes[0];
+                end = bytes[1];
+                response.setHeader(CONTENT_RANGE,
+                        "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setStatus(count < length ? SC_PARTIAL_CONTENT : SC_OK);
+        response.setContentType(contentType);
+        response.setContentLengthLong(count);
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (file != null && Boolean.TRUE
+                .equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Zero-copy, done by the container after returning
+            request.setAttribute(SENDFILE_FILENAME,
+                    file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            transfer(fileChannel, start, count, response);
+        }
+    }
+
+    private void transfer(FileChannel fileChannel, long start, long count,
+            HttpServletResponse response) throws IOException {
+        WritableByteChannel target = Channels
+                .newChannel(response.getOutputStream());
+        long position = start;
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = fileChannel.transferTo(position, remaining,
+                    target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String etag,
+            long lastModified) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = getDateHeader(request, IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0
+                && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean isRangeValid(HttpServletRequest request, String etag,
+            long lastModified) {
+        // If-Range: the range is only applied if the file has not changed
+        String ifRange = request.getHeader(IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        long date = getDateHeader(request, IF_RANGE);
+        return date >= 0 && lastModified / 1000 == date / 1000;
+    }
+
+    private boolean matches(String header, String etag) {
+        for (String value : header.split(",")) {
+            String tag = value.trim();
+            if (tag.equals("*") || tag.equals(etag)
+                    || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse a single byte range. Returns {start, end} (inclusive), an empty
+     * array if not satisfiable, or null if the range is to be ignored.
+     */
+    long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // Suffix range: last N bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || length == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)),
+                                length - 1);
+                if (start > end) {
+                    return start >= length ? new long[0] : null;
+                }
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
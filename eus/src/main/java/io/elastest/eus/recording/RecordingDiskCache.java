@@ -0,0 +1,330 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Comparator.comparingLong;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local disk cache for recordings stored remotely (i.e. in Alluxio). The
+ * cache is bounded in bytes, and the least recently used files are evicted
+ * when that size is exceeded. Concurrent requests of the same file are
+ * served by a single fetch (single-flight). Files are fetched to a temporal
+ * file and then moved, so that partial files are never served.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RecordingDiskCache {
+
+    static final String PART_EXTENSION = ".part";
+
+    private final Logger log = LoggerFactory
+            .getLogger(RecordingDiskCache.class);
+
+    private Path folder;
+    private long maxBytes;
+
+    // Size of files by name, in access order (guarded by this)
+    private Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+    private Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+    private AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * Fetch of a file not present in the cache.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        void fetch(Path target) throws IOException;
+    }
+
+    public RecordingDiskCache(Path folder, long maxBytes) {
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Create the cache folder (if necessary) and register the files already
+     * present on it, in order of modification time.
+     */
+    public void load() throws IOException {
+        Files.createDirectories(folder);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(folder)) {
+            files = stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        files.sort(comparingLong(this::lastModified));
+
+        synchronized (this) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(PART_EXTENSION)) {
+                    // Leftover of an interrupted fetch
+                    Files.deleteIfExists(file);
+                } else {
+                    long size = Files.size(file);
+                    entries.put(fileName, size);
+                    sizeBytes += size;
+                }
+            }
+            evict(null);
+        }
+        log.debug("Recording cache loaded in {} ({} files, {} bytes)", folder,
+                entries.size(), sizeBytes);
+    }
+
+    /**
+     * Open a cached file, fetching it first if necessary. The file is opened
+     * holding the cache lock, so that a concurrent eviction cannot remove it
+     * before it is read (the opened channel remains readable afterwards).
+     * Requests waiting for an in-flight fetch of the same file are counted
+     * as misses.
+     */
+    public CachedFile open(String fileName, Fetcher fetcher)
+            throws IOException {
+        CachedFile cached = openCached(fileName);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        while (true) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight
+                    .putIfAbsent(fileName, future);
+            if (running == null) {
+                try {
+                    cached = openCached(fileName);
+                    if (cached == null) {
+                        cached = fetch(fileName, fetcher);
+                    }
+                    future.complete(null);
+                    return cached;
+
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                    throw e;
+
+                } finally {
+                    inFlight.remove(fileName, future);
+                }
+            }
+
+            // Another request is already fetching the same file. It can be
+            // evicted again before opening it, and in that case it is
+            // fetched again
+            await(running);
+            cached = openCached(fileName);
+            if (cached != null) {
+                return cached;
+            }
+        }
+    }
+
+    public Path get(String fileName, Fetcher fetcher) throws IOException {
+        try (CachedFile cached = open(fileName, fetcher)) {
+            return folder.resolve(fileName);
+        }
+    }
+
+    public synchronized boolean remove(String fileName) throws IOException {
+        Long size = entries.remove(fileName);
+        if (size != null) {
+            sizeBytes -= size;
+        }
+        return Files.deleteIfExists(folder.resolve(fileName));
+    }
+
+    private synchronized CachedFile openCached(String fileName)
+            throws IOException {
+        // Access to the map updates the LRU order
+        if (entries.get(fileName) == null) {
+            return null;
+        }
+        try {
+            return openFile(fileName);
+        } catch (NoSuchFileException e) {
+            // Removed externally
+            sizeBytes -= entries.remove(fileName);
+            return null;
+        }
+    }
+
+    private CachedFile openFile(String fileName) throws IOException {
+        // Called holding the lock
+        Path path = folder.resolve(fileName);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        return new CachedFile(FileChannel.open(path, READ), lastModified);
+    }
+
+    private CachedFile fetch(String fileName, Fetcher fetcher)
+            throws IOException {
+        Path target = folder.resolve(fileName);
+        Path part = Files.createTempFile(folder, fileName, PART_EXTENSION);
+        try {
+            fetcher.fetch(part);
+            long size = Files.size(part);
+            Files.move(part, target, REPLACE_EXISTING, ATOMIC_MOVE);
+
+            CachedFile cached;
+            synchronized (this) {
+                Long previous = entries.put(fileName, size);
+                sizeBytes += size - (previous != null ? previous : 0);
+                cached = openFile(fileName);
+                evict(fileName);
+            }
+            log.debug("Recording {} cached ({} bytes)", fileName, size);
+            return cached;
+
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    private void evict(String keep) throws IOException {
+        // Called holding the lock. The file just fetched is never evicted,
+        // even if it is bigger than the cache
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet()
+                .iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            sizeBytes -= eldest.getValue();
+            evictions.incrementAndGet();
+            evictedBytes.addAndGet(eldest.getValue());
+            Files.deleteIfExists(folder.resolve(eldest.getKey()));
+            log.debug("Recording {} evicted from cache ({} bytes)",
+                    eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for fetch");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * File opened from the cache, together with its modification time.
+     */
+    public static class CachedFile implements Closeable {
+
+        private FileChannel channel;
+        private long lastModified;
+
+        public CachedFile(FileChannel channel, long lastModified) {
+            this.channel = channel;
+            this.lastModified = lastModified;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import static io.elastest.eus.recording.RecordingQuery.SortField.CREATIONTIME;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of stored recordings. Recordings are kept by identifier and
+ * ordered by creation time, so that time ranges are resolved without scanning
+ * the whole index. Writes are serialized; reads are lock-free.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RecordingIndex {
+
+    private Map<String, RecordingMetadata> recordings = new ConcurrentHashMap<>();
+    private NavigableSet<RecordingMetadata> recordingsByTime = new ConcurrentSkipListSet<>(
+            CREATIONTIME.getComparator());
+
+    public synchronized void put(RecordingMetadata recording) {
+        RecordingMetadata previous = recordings.put(recording.getId(),
+                recording);
+        if (previous != null) {
+            recordingsByTime.remove(previous);
+        }
+        recordingsByTime.add(recording);
+    }
+
+    public synchronized boolean remove(String id) {
+        RecordingMetadata previous = recordings.remove(id);
+        if (previous != null) {
+            recordingsByTime.remove(previous);
+        }
+        return previous != null;
+    }
+
+    public Optional<RecordingMetadata> get(String id) {
+        return Optional.ofNullable(recordings.get(id));
+    }
+
+    public List<RecordingMetadata> getAll() {
+        return new ArrayList<>(recordingsByTime);
+    }
+
+    public int size() {
+        return recordings.size();
+    }
+
+    public Page query(RecordingQuery query) {
+        NavigableSet<RecordingMetadata> range = recordingsByTime;
+        if (query.getFrom() > 0 || query.getTo() < Long.MAX_VALUE) {
+            range = recordingsByTime.subSet(bound(query.getFrom(), ""), true,
+                    bound(query.getTo(), "\uffff"), true);
+        }
+
+        // Sorting by time is given by the index itself
+        Stream<RecordingMetadata> matches;
+        if (query.getSort() == CREATIONTIME) {
+            matches = (query.isAscending() ? range : range.descendingSet())
+                    .stream().filter(query::matches);
+        } else {
+            Comparator<RecordingMetadata> comparator = query.getSort()
+                    .getComparator();
+            matches = range.stream().filter(query::matches).sorted(
+                    query.isAscending() ? comparator : comparator.reversed());
+        }
+
+        List<RecordingMetadata> filtered = matches.collect(toList());
+        long skip = (long) query.getPage() * query.getSize();
+        List<RecordingMetadata> content = filtered.stream().skip(skip)
+                .limit(query.getSize()).collect(toList());
+        return new Page(content, filtered.size(), query.getPage(),
+                query.getSize());
+    }
+
+    private RecordingMetadata bound(long timestamp, String id) {
+        return new RecordingMetadata(id, null, null, null, timestamp, null);
+    }
+
+    /**
+     * Page of results of a query (with the total number of matches).
+     */
+    public static class Page {
+        private final List<RecordingMetadata> recordings;
+        private final int total;
+        private final int page;
+        private final int size;
+
+        public Page(List<RecordingMetadata> recordings, int total, int page,
+                int size) {
+            this.recordings = recordings;
+            this.total = total;
+            this.page = page;
+            this.size = size;
+        }
+
+        public List<RecordingMetadata> getRecordings() {
+            return recordings;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+/**
+ * Metadata of a stored recording (immutable). The JSON representation is
+ * kept already serialized, since it is sent as is to clients.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RecordingMetadata {
+
+    private final String id;
+    private final String browser;
+    private final String version;
+    private final String creationTime;
+    private final long timestamp;
+    private final String json;
+
+    public RecordingMetadata(String id, String browser, String version,
+            String creationTime, long timestamp, String json) {
+        this.id = id;
+        this.browser = browser;
+        this.version = version;
+        this.creationTime = creationTime;
+        this.timestamp = timestamp;
+        this.json = json;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getBrowser() {
+        return browser;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getCreationTime() {
+        return creationTime;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingMetadata [id=" + id + ", browser=" + browser
+                + ", version=" + version + ", creationTime=" + creationTime
+                + "]";
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import java.util.Comparator;
+
+/**
+ * Query of recordings (filters, sorting and paging). Null or empty filters
+ * match any recording.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RecordingQuery {
+
+    public enum SortField {
+        CREATIONTIME(Comparator.comparingLong(RecordingMetadata::getTimestamp)
+                .thenComparing(RecordingMetadata::getId)),
+        BROWSER(Comparator.comparing(RecordingMetadata::getBrowser,
+                Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))
+                .thenComparing(CREATIONTIME.comparator)),
+        VERSION(Comparator.comparing(RecordingMetadata::getVersion,
+                Comparator.nullsFirst(Comparator.<String> naturalOrder()))
+                .thenComparing(CREATIONTIME.comparator)),
+        ID(Comparator.comparing(RecordingMetadata::getId));
+
+        private final Comparator<RecordingMetadata> comparator;
+
+        SortField(Comparator<RecordingMetadata> comparator) {
+            this.comparator = comparator;
+        }
+
+        public Comparator<RecordingMetadata> getComparator() {
+            return comparator;
+        }
+    }
+
+    private final String browser;
+    private final String version;
+    private final long from;
+    private final long to;
+    private final SortField sort;
+    private final boolean ascending;
+    private final int page;
+    private final int size;
+
+    public RecordingQuery(String browser, String version, long from, long to,
+            SortField sort, boolean ascending, int page, int size) {
+        this.browser = browser;
+        this.version = version;
+        this.from = from;
+        this.to = to;
+        this.sort = sort;
+        this.ascending = ascending;
+        this.page = Math.max(0, page);
+        this.size = Math.max(1, size);
+    }
+
+    public boolean matches(RecordingMetadata recording) {
+        return (isEmpty(browser)
+                || browser.equalsIgnoreCase(recording.getBrowser()))
+                && (isEmpty(version) || version.equals(recording.getVersion()));
+    }
+
+    private boolean isEmpty(String filter) {
+        return filter == null || filter.isEmpty();
+    }
+
+    public String getBrowser() {
+        return browser;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public SortField getSort() {
+        return sort;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+}
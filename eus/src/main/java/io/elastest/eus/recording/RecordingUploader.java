@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.recording;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upload of recordings to the storage in a dedicated executor. The number of
+ * concurrent uploads is limited by its pool (and the pending ones by its
+ * queue, rejecting uploads when full). Failed attempts are retried with a
+ * linear backoff, so each attempt must start the upload from the beginning.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RecordingUploader implements Closeable {
+
+    private final Logger log = LoggerFactory
+            .getLogger(RecordingUploader.class);
+
+    private int maxAttempts;
+    private long retryDelayMs;
+    private ExecutorService uploadExecutor;
+    private AtomicInteger active = new AtomicInteger();
+    private AtomicLong uploads = new AtomicLong();
+    private AtomicLong retries = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+    private AtomicLong uploadedBytes = new AtomicLong();
+
+    public RecordingUploader(int threads, int queueSize, int maxAttempts,
+            long retryDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMs = retryDelayMs;
+        this.uploadExecutor = new ThreadPoolExecutor(threads, threads, 0L,
+                MILLISECONDS, new LinkedBlockingQueue<>(queueSize));
+    }
+
+    /**
+     * Upload a file, returning a future completed when the upload is done (or
+     * completed exceptionally with the error of the last attempt, or if the
+     * upload is rejected because the queue is full).
+     */
+    public CompletableFuture<Upload> upload(String fileName, Attempt attempt) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                active.incrementAndGet();
+                try {
+                    return uploadWithRetries(fileName, attempt);
+                } finally {
+                    active.decrementAndGet();
+                }
+            }, uploadExecutor);
+
+        } catch (RejectedExecutionException e) {
+            failures.incrementAndGet();
+            log.warn("Upload of {} rejected (upload queue full)", fileName);
+            CompletableFuture<Upload> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new UncheckedIOException(
+                    new IOException("Upload of " + fileName + " rejected",
+                            e)));
+            return rejected;
+        }
+    }
+
+    private Upload uploadWithRetries(String fileName, Attempt attempt) {
+        for (int i = 1;; i++) {
+            long start = System.nanoTime();
+            try {
+                long bytes = attempt.upload();
+                long nanos = System.nanoTime() - start;
+                uploads.incrementAndGet();
+                uploadedBytes.addAndGet(bytes);
+                log.debug("Uploaded {} ({} bytes in {} ms, attempt {})",
+                        fileName, bytes, NANOSECONDS.toMillis(nanos), i);
+                return new Upload(bytes, nanos, i);
+
+            } catch (IOException | RuntimeException e) {
+                if (i >= maxAttempts) {
+                    failures.incrementAndGet();
+                    log.warn("Upload of {} failed after {} attempts", fileName,
+                            i);
+                    throw e instanceof IOException
+                            ? new UncheckedIOException((IOException) e)
+                            : (RuntimeException) e;
+                }
+                retries.incrementAndGet();
+                log.warn("Attempt {} of upload of {} failed, retrying ({})",
+                        i, fileName, e.getMessage());
+                sleep(retryDelayMs * i);
+            }
+        }
+    }
+
+    private void sleep(long delayMs) {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(
+                    new InterruptedIOException("Upload interrupted"));
+        }
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        uploadExecutor.shutdown();
+    }
+
+    /**
+     * Single attempt of an upload. Returns the number of bytes uploaded.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+        long upload() throws IOException;
+    }
+
+    /**
+     * Result of a completed upload.
+     */
+    public static class Upload {
+        final long bytes;
+        final long nanos;
+        final int attempts;
+
+        Upload(long bytes, long nanos, int attempts) {
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.attempts = attempts;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+}
@@ -17,13 +17,22 @@
 package io.elastest.eus.service;
 
 import static java.util.Arrays.stream;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +44,16 @@ import com.google.gson.Gson;
 import io.elastest.eus.EusException;
 import io.elastest.eus.external.EdmAluxioApi;
 import io.elastest.eus.external.EdmAluxioFile;
+import io.elastest.eus.recording.MetadataFetcher;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
 import retrofit2.Call;
 import retrofit2.Response;
 import retrofit2.Retrofit;
@@ -61,7 +77,23 @@ public class AlluxioService {
     @Value("${registry.metadata.extension}")
     private String metadataExtension;
 
+    @Value("${edm.alluxio.chunk.size}")
+    private int chunkSize;
+
+    @Value("${edm.alluxio.upload.chunk.size}")
+    private long uploadChunkSize;
+
+    @Value("${edm.alluxio.timeout.ms}")
+    private long timeoutMs;
+
+    @Value("${edm.alluxio.fetch.threads}")
+    private int fetchThreads;
+
+    private static final MediaType OCTET_STREAM = MediaType
+            .parse("application/octet-stream");
+
     private EdmAluxioApi alluxio;
+    private MetadataFetcher metadataFetcher;
 
     @PostConstruct
     public void postConstruct() {
@@ -71,11 +103,30 @@ public class AlluxioService {
                 edmAlluxioUrl += "/";
             }
 
-            Retrofit retrofit = new Retrofit.Builder()
+            // Timeouts are applied to each HTTP call. Request bodies are
+            // streamed (not repeatable), so failed calls are not retried by
+            // the client
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .retryOnConnectionFailure(false)
+                    .connectTimeout(timeoutMs, MILLISECONDS)
+                    .readTimeout(timeoutMs, MILLISECONDS)
+                    .writeTimeout(timeoutMs, MILLISECONDS).build();
+
+            Retrofit retrofit = new Retrofit.Builder().client(client)
                     .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
                     .addConverterFactory(GsonConverterFactory.create())
                     .baseUrl(edmAlluxioUrl).build();
             alluxio = retrofit.create(EdmAluxioApi.class);
+
+            metadataFetcher = new MetadataFetcher(this::getFileAsString,
+                    fetchThreads, timeoutMs);
+        }
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if (metadataFetcher != null) {
+            metadataFetcher.close();
         }
     }
 
@@ -91,58 +142,142 @@ public class AlluxioService {
     }
 
     public byte[] getFile(String file) throws IOException {
+        Buffer buffer = new Buffer();
+        readFile(file, buffer);
+        return buffer.readByteArray();
+    }
+
+    public long readFile(String file, Path target) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.sink(target))) {
+            return readFile(file, sink);
+        }
+    }
+
+    public long readFile(String file, BufferedSink sink) throws IOException {
         Call<ResponseBody> openFile = alluxio.openFile(file);
         Response<ResponseBody> execute = openFile.execute();
         String streamId = execute.body().string();
         log.debug("Stream id {}", streamId);
 
-        Call<ResponseBody> readStream = alluxio.readStream(streamId);
-        byte[] content = readStream.execute().body().bytes();
-        log.debug("Received {} bytes", content.length);
-
-        alluxio.closeStream(streamId).execute();
-        log.debug("Stream {} closed", streamId);
+        try (ResponseBody body = alluxio.readStream(streamId).execute()
+                .body()) {
+            // The content is moved in chunks from the response to the sink
+            // (it is not buffered as a whole)
+            BufferedSource source = body.source();
+            long total = 0;
+            long read;
+            while ((read = source.read(sink.buffer(), chunkSize)) != -1) {
+                total += read;
+                sink.emitCompleteSegments();
+            }
+            sink.flush();
+            log.debug("Received {} bytes", total);
+            return total;
 
-        return content;
+        } finally {
+            alluxio.closeStream(streamId).execute();
+            log.debug("Stream {} closed", streamId);
+        }
     }
 
     public boolean writeFile(String fileName, byte[] fileContent)
             throws IOException {
-        log.debug("Writing {} bytes to Alluxio", fileContent.length);
+        return writeFile(fileName,
+                Okio.source(new ByteArrayInputStream(fileContent)),
+                fileContent.length);
+    }
+
+    public boolean writeFile(String fileName, Path file) throws IOException {
+        try (Source source = Okio.source(file)) {
+            return writeFile(fileName, source, Files.size(file));
+        }
+    }
+
+    public boolean writeFile(String fileName, Source source, long length)
+            throws IOException {
+        log.debug("Writing {} bytes to Alluxio", length);
 
         Call<ResponseBody> openFile = alluxio.createFile(fileName);
         String streamId = openFile.execute().body().string();
         log.debug("Stream id {}", streamId);
 
-        RequestBody requestBody = RequestBody.create(
-                MediaType.parse("application/octet-stream"), fileContent);
-        Response<Void> execute = alluxio.writeStream(streamId, requestBody)
-                .execute();
-        log.debug("Result: {}", execute);
+        try {
+            // Each write request carries at most one upload chunk (the
+            // content is appended to the open stream)
+            long remaining = length;
+            do {
+                long chunkLength = Math.min(remaining, uploadChunkSize);
+                Response<Void> execute = alluxio
+                        .writeStream(streamId,
+                                streamingBody(source, chunkLength))
+                        .execute();
+                log.trace("Result: {}", execute);
+                if (!execute.isSuccessful()) {
+                    log.warn("Error writing {} to Alluxio: {}", fileName,
+                            execute);
+                    return false;
+                }
+                remaining -= chunkLength;
+            } while (remaining > 0);
+            return true;
 
-        boolean writeSuccessful = execute.isSuccessful();
+        } finally {
+            alluxio.closeStream(streamId).execute();
+            log.debug("Stream {} closed", streamId);
+        }
+    }
 
-        alluxio.closeStream(streamId).execute();
-        log.debug("Stream {} closed", streamId);
+    private RequestBody streamingBody(Source source, long length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
 
-        return writeSuccessful;
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // Written in chunks while the request is sent
+                long remaining = length;
+                while (remaining > 0) {
+                    long read = source.read(sink.buffer(),
+                            Math.min(remaining, chunkSize));
+                    if (read == -1) {
+                        throw new EOFException("Unexpected end of content ("
+                                + remaining + " bytes missing)");
+                    }
+                    remaining -= read;
+                    sink.emitCompleteSegments();
+                }
+            }
+        };
     }
 
     public boolean deleteFile(String file) throws IOException {
         log.debug("Deleting file {}", file);
+        if (metadataFetcher != null) {
+            metadataFetcher.remove(file);
+        }
         Response<ResponseBody> response = alluxio.deleteFile(file).execute();
         log.debug("Reponse: {}", response);
         return response.isSuccessful();
     }
 
     public List<String> listFiles(String folder) throws IOException {
+        return stream(listFileStatus(folder)).map(EdmAluxioFile::getName)
+                .collect(toList());
+    }
+
+    public EdmAluxioFile[] listFileStatus(String folder) throws IOException {
         Response<ResponseBody> execute = alluxio.listFiles(folder).execute();
         String responseBody = execute.body().string();
         log.trace("Listing Alluxio files in folder {}", folder);
 
-        EdmAluxioFile[] files = new Gson().fromJson(responseBody,
-                EdmAluxioFile[].class);
-        return stream(files).map(EdmAluxioFile::getName).collect(toList());
+        return new Gson().fromJson(responseBody, EdmAluxioFile[].class);
     }
 
     public List<String> getMetadataFileList() throws IOException {
@@ -151,4 +286,22 @@ public class AlluxioService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Deliver the content of the metadata files to the consumer. Returns the
+     * number of files skipped (i.e. failed or timed out).
+     */
+    public int fetchMetadata(Consumer<String> consumer) throws IOException {
+        Map<String, Long> metadataFiles = new LinkedHashMap<>();
+        for (EdmAluxioFile file : listFileStatus("/")) {
+            if (file.getName().endsWith(metadataExtension)) {
+                metadataFiles.put(file.getName(),
+                        file.getLastModificationTimeMs());
+            }
+        }
+        log.debug("Fetching {} metadata files from Alluxio",
+                metadataFiles.size());
+        return metadataFiles.size()
+                - metadataFetcher.fetch(metadataFiles, consumer);
+    }
+
 }
@@ -17,10 +17,14 @@
 package io.elastest.eus.service;
 
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.sleep;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static io.elastest.eus.docker.ContainerEvent.DESTROYED;
+import static io.elastest.eus.docker.ContainerEvent.DIED;
+import static io.elastest.eus.docker.ContainerEvent.STARTED;
 import static org.apache.commons.lang.SystemUtils.IS_OS_WINDOWS;
 
 import java.io.ByteArrayOutputStream;
@@ -36,9 +40,17 @@ import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -54,6 +66,7 @@ import org.springframework.stereotype.Service;
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.ExecCreateCmdResponse;
+import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.PortBinding;
@@ -63,7 +76,11 @@ import com.github.dockerjava.core.command.ExecStartResultCallback;
 import com.github.dockerjava.core.command.PullImageResultCallback;
 
 import io.elastest.eus.EusException;
+import io.elastest.eus.docker.ContainerEvent;
+import io.elastest.eus.docker.ContainerLifecycleMonitor;
+import io.elastest.eus.docker.ContainerStateCache;
 import io.elastest.eus.docker.DockerContainer;
+import io.micrometer.core.instrument.Timer.Sample;
 
 /**
  * Service implementation simulating EPM (ElasTest Platform Manager) with
@@ -98,21 +115,64 @@ public class DockerService {
     @Value("${use.torm}")
     private boolean useTorm;
 
+    @Value("${docker.events.enabled}")
+    private boolean dockerEventsEnabled;
+
+    @Value("${docker.events.reconnect.ms}")
+    private int dockerEventsReconnectMs;
+
+    @Value("${docker.cache.ttl.ms}")
+    private long dockerCacheTtlMs;
+
     private ShellService shellService;
+    private MetricsService metricsService;
 
     private DockerClient dockerClient;
+    private ContainerLifecycleMonitor containerLifecycleMonitor;
+    private ContainerStateCache containerStateCache;
+    private Set<String> existingImages = ConcurrentHashMap.newKeySet();
+    private Map<String, CompletableFuture<Void>> ongoingPulls = new ConcurrentHashMap<>();
     private String dockerServerIp;
     private boolean isRunningInContainer = false;
     private boolean containerCheked = false;
 
-    public DockerService(ShellService shellService) {
+    public DockerService(ShellService shellService,
+            MetricsService metricsService) {
         this.shellService = shellService;
+        this.metricsService = metricsService;
     }
 
     @PostConstruct
     private void postConstruct() throws IOException {
         dockerClient = DockerClientBuilder.getInstance(getDockerServerUrl())
                 .build();
+
+        containerStateCache = new ContainerStateCache(dockerCacheTtlMs);
+        metricsService.functionCounter("eus.docker.cache.hits",
+                "Container state checks served from cache",
+                containerStateCache, ContainerStateCache::getHits);
+        metricsService.functionCounter("eus.docker.cache.misses",
+                "Container state checks requiring a Docker inspection",
+                containerStateCache, ContainerStateCache::getMisses);
+        if (dockerEventsEnabled) {
+            containerLifecycleMonitor = new ContainerLifecycleMonitor(
+                    dockerClient, dockerEventsReconnectMs);
+            containerLifecycleMonitor.addListener(containerStateCache);
+            try {
+                containerLifecycleMonitor.start();
+            } catch (Exception e) {
+                log.warn(
+                        "Exception subscribing to Docker events ({}), using polling instead",
+                        e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    private void preDestroy() throws IOException {
+        if (containerLifecycleMonitor != null) {
+            containerLifecycleMonitor.close();
+        }
     }
 
     public String getDockerServerUrl() throws IOException {
@@ -197,9 +257,36 @@ public class DockerService {
                     createContainer.withEnv(envs.get());
                 }
 
-                createContainer.exec();
-                dockerClient.startContainerCmd(containerName).exec();
-                waitForContainer(containerName);
+                // Subscription to start event is done before starting the
+                // container to avoid missing the event
+                Optional<CompletableFuture<Void>> startedFuture = isEventsConnected()
+                        ? Optional.of(awaitContainer(containerName, STARTED))
+                        : Optional.empty();
+
+                try {
+                    Sample createSample = metricsService.startTimer();
+                    try {
+                        createContainer.exec();
+                    } catch (RuntimeException e) {
+                        // The image may have been removed after being cached
+                        // as existing, so it is checked again the next time
+                        existingImages.remove(imageId);
+                        throw e;
+                    }
+                    metricsService.stopDockerPhaseTimer(createSample,
+                            "container.create", imageId);
+
+                    Sample startSample = metricsService.startTimer();
+                    dockerClient.startContainerCmd(containerName).exec();
+                    waitForContainer(containerName, startedFuture);
+                    metricsService.stopDockerPhaseTimer(startSample,
+                            "container.start", imageId);
+
+                } catch (InterruptedException | RuntimeException e) {
+                    // Otherwise the waiter would be kept by the monitor
+                    startedFuture.ifPresent(future -> future.cancel(true));
+                    throw e;
+                }
             }
         } else {
             log.warn("Container {} already running", containerName);
@@ -207,19 +294,57 @@ public class DockerService {
     }
 
     public void pullImageIfNecessary(String imageId) {
-        if (!existsImage(imageId)) {
+        if (existsImage(imageId)) {
+            return;
+        }
+
+        // Only one pull per image at the same time (e.g. prefetch and a new
+        // session), the rest of callers wait for it
+        CompletableFuture<Void> pull = new CompletableFuture<>();
+        CompletableFuture<Void> ongoingPull = ongoingPulls.putIfAbsent(imageId,
+                pull);
+        if (ongoingPull != null) {
+            log.info("Docker image {} is being pulled ... please wait",
+                    imageId);
+            try {
+                ongoingPull.join();
+            } catch (CompletionException e) {
+                throw new EusException("Exception pulling image " + imageId,
+                        e.getCause());
+            }
+            return;
+        }
+
+        try {
             log.info("Pulling Docker image {} ... please wait", imageId);
+            Sample pullSample = metricsService.startTimer();
             dockerClient.pullImageCmd(imageId)
                     .exec(new PullImageResultCallback()).awaitSuccess();
+            metricsService.stopDockerPhaseTimer(pullSample, "image.pull",
+                    imageId);
             log.debug("Docker image {} downloaded", imageId);
+            existingImages.add(imageId);
+            pull.complete(null);
+
+        } catch (RuntimeException e) {
+            pull.completeExceptionally(e);
+            throw e;
+
+        } finally {
+            ongoingPulls.remove(imageId, pull);
         }
     }
 
     public boolean existsImage(String imageId) {
+        if (existingImages.contains(imageId)) {
+            return true;
+        }
+
         boolean exists = true;
         try {
             dockerClient.inspectImageCmd(imageId).exec();
             log.debug("Docker image {} already exists", imageId);
+            existingImages.add(imageId);
 
         } catch (NotFoundException e) {
             log.trace("Image {} does not exist", imageId);
@@ -237,6 +362,7 @@ public class DockerService {
         if (isRunningContainer(containerName)) {
             log.trace("Stopping container {}", containerName);
             dockerClient.stopContainerCmd(containerName).exec();
+            containerStateCache.update(containerName, DIED);
 
         } else {
             log.debug("Container {} is not running", containerName);
@@ -248,6 +374,7 @@ public class DockerService {
             log.trace("Removing container {}", containerName);
             dockerClient.removeContainerCmd(containerName)
                     .withRemoveVolumes(true).exec();
+            containerStateCache.update(containerName, DESTROYED);
         }
     }
 
@@ -298,13 +425,55 @@ public class DockerService {
         return inputStream;
     }
 
+    public boolean isEventsConnected() {
+        return containerLifecycleMonitor != null
+                && containerLifecycleMonitor.isConnected();
+    }
+
+    public CompletableFuture<Void> awaitContainer(String containerName,
+            ContainerEvent containerEvent) {
+        if (containerLifecycleMonitor == null) {
+            throw new EusException("Docker events not enabled");
+        }
+        return containerLifecycleMonitor.await(containerName, containerEvent);
+    }
+
+    private void waitForContainer(String containerName,
+            Optional<CompletableFuture<Void>> startedFuture)
+            throws InterruptedException {
+        if (!startedFuture.isPresent()) {
+            waitForContainer(containerName);
+            return;
+        }
+
+        try {
+            startedFuture.get().get(dockerWaitTimeoutSec, SECONDS);
+            log.trace("Container {} started", containerName);
+
+        } catch (TimeoutException e) {
+            startedFuture.get().cancel(true);
+
+            // Last check, in case the start event has been missed
+            if (!inspectRunningContainer(containerName)) {
+                throw new EusException("Timeout of " + dockerWaitTimeoutSec
+                        + " seconds waiting for container " + containerName,
+                        e);
+            }
+
+        } catch (ExecutionException e) {
+            throw new EusException(
+                    "Exception waiting for container " + containerName,
+                    e.getCause());
+        }
+    }
+
     public void waitForContainer(String containerName)
             throws InterruptedException {
         boolean isRunning = false;
         long timeoutMs = currentTimeMillis()
                 + SECONDS.toMillis(dockerWaitTimeoutSec);
         do {
-            isRunning = isRunningContainer(containerName);
+            isRunning = inspectRunningContainer(containerName);
             if (!isRunning) {
                 // Check timeout
                 if (currentTimeMillis() > timeoutMs) {
@@ -323,27 +492,52 @@ public class DockerService {
     }
 
     public boolean isRunningContainer(String containerName) {
-        boolean isRunning = false;
-        if (existsContainer(containerName)) {
-            isRunning = dockerClient.inspectContainerCmd(containerName).exec()
-                    .getState().getRunning();
-            log.trace("Container {} is running: {}", containerName, isRunning);
+        Optional<Boolean> cachedRunning = containerStateCache
+                .isRunning(containerName);
+        if (cachedRunning.isPresent()) {
+            return cachedRunning.get();
         }
+        return inspectRunningContainer(containerName);
+    }
+
+    public boolean existsContainer(String containerName) {
+        Optional<Boolean> cachedExists = containerStateCache
+                .exists(containerName);
+        if (cachedExists.isPresent()) {
+            return cachedExists.get();
+        }
+        return inspectContainer(containerName).isPresent();
+    }
 
+    private boolean inspectRunningContainer(String containerName) {
+        Optional<InspectContainerResponse> inspect = inspectContainer(
+                containerName);
+        boolean isRunning = inspect.isPresent()
+                && inspect.get().getState().getRunning();
+        log.trace("Container {} is running: {}", containerName, isRunning);
         return isRunning;
     }
 
-    public boolean existsContainer(String containerName) {
-        boolean exists = true;
+    private Optional<InspectContainerResponse> inspectContainer(
+            String containerName) {
+        long inspectStart = nanoTime();
         try {
-            dockerClient.inspectContainerCmd(containerName).exec();
-            log.trace("Container {} already exist", containerName);
+            InspectContainerResponse inspect = dockerClient
+                    .inspectContainerCmd(containerName).exec();
+            containerStateCache.inspected(containerName, true,
+                    inspect.getState().getRunning(), inspectStart);
+            return Optional.of(inspect);
 
         } catch (NotFoundException e) {
             log.trace("Container {} does not exist", containerName);
-            exists = false;
+            containerStateCache.inspected(containerName, false, false,
+                    inspectStart);
+            return Optional.empty();
         }
-        return exists;
+    }
+
+    public ContainerStateCache getContainerStateCache() {
+        return containerStateCache;
     }
 
     public void waitForHostIsReachable(String url) {
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.service;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Shared HTTP client (with connection pool and keep-alive) used to proxy
+ * requests to the browser hubs.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Service
+public class HubClientService {
+
+    private final Logger log = LoggerFactory.getLogger(HubClientService.class);
+
+    @Value("${hub.client.max.total}")
+    private int hubClientMaxTotal;
+
+    @Value("${hub.client.max.per.route}")
+    private int hubClientMaxPerRoute;
+
+    @Value("${hub.client.connect.timeout.ms}")
+    private int hubClientConnectTimeoutMs;
+
+    @Value("${hub.client.read.timeout.ms}")
+    private int hubClientReadTimeoutMs;
+
+    @Value("${hub.client.request.timeout.ms}")
+    private int hubClientRequestTimeoutMs;
+
+    @Value("${hub.client.idle.timeout.sec}")
+    private int hubClientIdleTimeoutSec;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private HttpComponentsClientHttpRequestFactory requestFactory;
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    public void postConstruct() {
+        log.debug(
+                "Creating HTTP client for hubs (max connections {}, max connections per hub {})",
+                hubClientMaxTotal, hubClientMaxPerRoute);
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(hubClientMaxTotal);
+        connectionManager.setDefaultMaxPerRoute(hubClientMaxPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(hubClientConnectTimeoutMs)
+                .setSocketTimeout(hubClientReadTimeoutMs)
+                .setConnectionRequestTimeout(hubClientRequestTimeoutMs)
+                .build();
+
+        // Idle connections are evicted in background, so that connections to
+        // already removed hubs are not kept in the pool
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableCookieManagement().evictExpiredConnections()
+                .evictIdleConnections(hubClientIdleTimeoutSec, SECONDS)
+                .build();
+
+        requestFactory = new HttpComponentsClientHttpRequestFactory(
+                httpClient);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    @PreDestroy
+    public void teardown() throws IOException {
+        log.debug("Closing HTTP client for hubs");
+        httpClient.close();
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    public HttpComponentsClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public PoolStats getHubStats(String hubUrl) {
+        URI uri = URI.create(hubUrl);
+        HttpRoute route = new HttpRoute(
+                new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+        return connectionManager.getStats(route);
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.service;
+
+import static io.elastest.eus.docker.DockerContainer.dockerBuilder;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.PortBinding;
+import com.github.dockerjava.api.model.Ports;
+import com.github.dockerjava.api.model.Ports.Binding;
+
+import io.elastest.eus.browser.BrowserCatalog;
+import io.elastest.eus.docker.HubContainer;
+import io.micrometer.core.instrument.Timer.Sample;
+
+/**
+ * Service implementation for browser hubs, keeping a warm pool of started
+ * hubs per browser (identified by the keys of the properties file).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Service
+public class HubPoolService {
+
+    private final Logger log = LoggerFactory.getLogger(HubPoolService.class);
+
+    @Value("${eus.container.prefix}")
+    private String eusContainerPrefix;
+
+    @Value("${hub.exposedport}")
+    private int hubExposedPort;
+
+    @Value("${hub.vnc.exposedport}")
+    private int hubVncExposedPort;
+
+    @Value("${hub.container.sufix}")
+    private String hubContainerSufix;
+
+    @Value("${hub.timeout}")
+    private String hubTimeout;
+
+    @Value("${hub.pool.size}")
+    private int hubPoolSize;
+
+    @Value("${hub.pool.keys}")
+    private String hubPoolKeys;
+
+    @Value("${hub.pool.refill.threads}")
+    private int hubPoolRefillThreads;
+
+    private DockerService dockerService;
+    private PropertiesService propertiesService;
+    private MetricsService metricsService;
+
+    private Map<String, BlockingQueue<HubContainer>> pools = new ConcurrentHashMap<>();
+    private Map<String, AtomicInteger> pendingHubs = new ConcurrentHashMap<>();
+    private Map<String, String> poolImages = new ConcurrentHashMap<>();
+    private AtomicLong poolHits = new AtomicLong();
+    private AtomicLong poolMisses = new AtomicLong();
+    private ExecutorService refillExecutor;
+
+    @Autowired
+    public HubPoolService(DockerService dockerService,
+            PropertiesService propertiesService,
+            MetricsService metricsService) {
+        this.dockerService = dockerService;
+        this.propertiesService = propertiesService;
+        this.metricsService = metricsService;
+    }
+
+    @PostConstruct
+    public void postConstruct() {
+        metricsService.functionCounter("eus.hub.pool.hits",
+                "Sessions served with a pooled hub", poolHits,
+                AtomicLong::get);
+        metricsService.functionCounter("eus.hub.pool.misses",
+                "Sessions requiring to start a new hub", poolMisses,
+                AtomicLong::get);
+
+        if (hubPoolSize <= 0) {
+            log.debug("Pool of browser hubs disabled");
+            return;
+        }
+
+        refillExecutor = newFixedThreadPool(hubPoolRefillThreads);
+        for (String key : getPoolKeys(propertiesService.getKeys())) {
+            if (!propertiesService.getKeys().contains(key)) {
+                log.warn("Browser {} not available, skipping it in the pool",
+                        key);
+                continue;
+            }
+            addPool(key, propertiesService.getDockerImageFromKey(key));
+        }
+        propertiesService.addCatalogListener(this::onCatalogReload);
+    }
+
+    private void onCatalogReload(BrowserCatalog browserCatalog) {
+        // Pools of browsers removed from the catalog (or with other image)
+        // are discarded, and pools of new browsers are created
+        List<HubContainer> removedHubs = new ArrayList<>();
+        synchronized (this) {
+            for (String key : new ArrayList<>(pools.keySet())) {
+                String imageId = browserCatalog.getKeys().contains(key)
+                        ? browserCatalog.getDockerImage(key)
+                        : null;
+                if (!poolImages.get(key).equals(imageId)) {
+                    removedHubs.addAll(removePool(key));
+                }
+            }
+            for (String key : getPoolKeys(browserCatalog.getKeys())) {
+                if (!pools.containsKey(key)
+                        && browserCatalog.getKeys().contains(key)) {
+                    addPool(key, browserCatalog.getDockerImage(key));
+                }
+            }
+        }
+
+        // Containers are removed out of the lock, so that new sessions (and
+        // refills) do not wait for them
+        for (HubContainer hub : removedHubs) {
+            try {
+                refillExecutor.execute(() -> removeHub(hub));
+            } catch (RejectedExecutionException e) {
+                removeHub(hub);
+            }
+        }
+    }
+
+    private synchronized void addPool(String propertiesKey, String imageId) {
+        log.debug("Keeping {} hubs of {} in the pool", hubPoolSize,
+                propertiesKey);
+        poolImages.put(propertiesKey, imageId);
+        pendingHubs.put(propertiesKey, new AtomicInteger());
+        pools.put(propertiesKey, new LinkedBlockingQueue<>());
+        refill(propertiesKey);
+    }
+
+    private synchronized List<HubContainer> removePool(String propertiesKey) {
+        log.debug("Removing pool of {} (browser catalog reloaded)",
+                propertiesKey);
+        BlockingQueue<HubContainer> pool = pools.remove(propertiesKey);
+        pendingHubs.remove(propertiesKey);
+        poolImages.remove(propertiesKey);
+        List<HubContainer> hubs = new ArrayList<>();
+        pool.drainTo(hubs);
+        return hubs;
+    }
+
+    private void offer(String propertiesKey, BlockingQueue<HubContainer> pool,
+            HubContainer hub) {
+        synchronized (this) {
+            // The pool could have been removed while the hub was starting
+            if (pools.get(propertiesKey) == pool) {
+                pool.offer(hub);
+                log.debug("Pooled hubs for {}: {}", propertiesKey,
+                        pool.size());
+                return;
+            }
+        }
+        removeHub(hub);
+    }
+
+    private void removeHub(HubContainer hub) {
+        log.debug("Removing pooled hub {}", hub);
+        try {
+            dockerService.stopAndRemoveContainer(hub.getContainerName());
+        } catch (Exception e) {
+            log.warn("Exception removing pooled hub {}: {}", hub,
+                    e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void teardown() {
+        if (refillExecutor != null) {
+            refillExecutor.shutdownNow();
+        }
+        for (BlockingQueue<HubContainer> pool : pools.values()) {
+            HubContainer hub;
+            while ((hub = pool.poll()) != null) {
+                removeHub(hub);
+            }
+        }
+    }
+
+    public HubContainer getHub(String propertiesKey, String timeout)
+            throws IOException, InterruptedException {
+        BlockingQueue<HubContainer> pool = pools.get(propertiesKey);
+
+        // Pooled hubs are started with the default timeout, and therefore
+        // they cannot be used for sessions with other timeout (e.g. live)
+        if (pool != null && timeout.equals(hubTimeout)) {
+            HubContainer hub;
+            while ((hub = pool.poll()) != null) {
+                refill(propertiesKey);
+                if (dockerService.isRunningContainer(hub.getContainerName())) {
+                    long hits = poolHits.incrementAndGet();
+                    log.debug("Using pooled hub {} for {} (hits {}, misses {})",
+                            hub, propertiesKey, hits, poolMisses.get());
+                    return hub;
+                }
+                log.warn("Pooled hub {} is not running, discarding it", hub);
+                dockerService.removeContainer(hub.getContainerName());
+            }
+        }
+
+        long misses = poolMisses.incrementAndGet();
+        log.debug("No pooled hub available for {} (hits {}, misses {})",
+                propertiesKey, poolHits.get(), misses);
+        if (pool != null) {
+            // Previous refills could have failed (e.g. Docker not available
+            // for a while), so they are retried here
+            refill(propertiesKey);
+        }
+        return startHub(propertiesService.getDockerImageFromKey(propertiesKey),
+                timeout);
+    }
+
+    public HubContainer startHub(String imageId, String timeout)
+            throws IOException, InterruptedException {
+        String hubContainerName = dockerService
+                .generateContainerName(eusContainerPrefix + hubContainerSufix);
+        List<String> env = asList(
+                "SE_OPTS=-timeout " + timeout + " -browserTimeout " + timeout);
+        log.debug(
+                "Starting browser with container name {} and environment variables {}",
+                hubContainerName, env);
+
+        // Port binding
+        int hubBindPort = dockerService.findRandomOpenPort();
+        Binding bindPort = Ports.Binding.bindPort(hubBindPort);
+        ExposedPort exposedPort = ExposedPort.tcp(hubExposedPort);
+
+        int hubVncBindPort = dockerService.findRandomOpenPort();
+        Binding bindHubVncPort = Ports.Binding.bindPort(hubVncBindPort);
+        ExposedPort exposedHubVncPort = ExposedPort.tcp(hubVncExposedPort);
+
+        List<PortBinding> portBindings = asList(
+                new PortBinding(bindPort, exposedPort),
+                new PortBinding(bindHubVncPort, exposedHubVncPort));
+
+        String hubUrl = "http://" + dockerService.getDockerServerIp() + ":"
+                + hubBindPort + "/wd/hub";
+        try {
+            Sample startSample = metricsService.startTimer();
+            dockerService.startAndWaitContainer(
+                    dockerBuilder(imageId, hubContainerName)
+                            .portBindings(portBindings).envs(env).build());
+            metricsService.stopSessionPhaseTimer(startSample, "hub.start");
+
+            Sample reachabilitySample = metricsService.startTimer();
+            dockerService.waitForHostIsReachable(hubUrl);
+            metricsService.stopSessionPhaseTimer(reachabilitySample,
+                    "hub.reachability");
+
+        } catch (InterruptedException | RuntimeException e) {
+            // The container (if created) is not referenced by any session
+            // or pool, so it is removed here
+            log.warn("Exception starting hub {}, removing it: {}",
+                    hubContainerName, e.getMessage());
+            try {
+                dockerService.stopAndRemoveContainer(hubContainerName);
+            } catch (Exception e1) {
+                log.debug("Exception removing hub {}: {}", hubContainerName,
+                        e1.getMessage());
+            }
+            throw e;
+        }
+
+        log.trace("Container: {} -- Hub URL: {}", hubContainerName, hubUrl);
+
+        return new HubContainer(hubContainerName, hubUrl, hubBindPort,
+                hubVncBindPort);
+    }
+
+    private synchronized void refill(String propertiesKey) {
+        BlockingQueue<HubContainer> pool = pools.get(propertiesKey);
+        if (pool == null) {
+            // Removed after a reload of the browser catalog
+            return;
+        }
+        AtomicInteger pending = pendingHubs.get(propertiesKey);
+        String imageId = poolImages.get(propertiesKey);
+
+        while (pool.size() + pending.get() < hubPoolSize) {
+            pending.incrementAndGet();
+            refillExecutor.execute(() -> {
+                try {
+                    offer(propertiesKey, pool, startHub(imageId, hubTimeout));
+                } catch (Exception e) {
+                    log.warn("Exception starting pooled hub for {}: {}",
+                            propertiesKey, e.getMessage());
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private Collection<String> getPoolKeys(Collection<String> catalogKeys) {
+        if (hubPoolKeys.trim().isEmpty()) {
+            return catalogKeys;
+        }
+        return asList(hubPoolKeys.trim().split("\\s*,\\s*"));
+    }
+
+    public long getPoolHits() {
+        return poolHits.get();
+    }
+
+    public long getPoolMisses() {
+        return poolMisses.get();
+    }
+
+    public int getPooledHubs(String propertiesKey) {
+        BlockingQueue<HubContainer> pool = pools.get(propertiesKey);
+        return pool != null ? pool.size() : 0;
+    }
+
+}
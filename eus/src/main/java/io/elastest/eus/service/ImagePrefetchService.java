@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.service;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.elastest.eus.browser.BrowserCatalog;
+
+/**
+ * Service implementation for prefetching (in background) the Docker images
+ * used by EUS: browsers (from the properties file), noVNC and
+ * docker-compose-ui.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Service
+public class ImagePrefetchService {
+
+    private final Logger log = LoggerFactory
+            .getLogger(ImagePrefetchService.class);
+
+    @Value("${docker.prefetch.enabled}")
+    private boolean dockerPrefetchEnabled;
+
+    @Value("${docker.prefetch.threads}")
+    private int dockerPrefetchThreads;
+
+    @Value("${novnc.image.id}")
+    private String noVncImageId;
+
+    @Value("${docker.compose.ui.image}")
+    private String dockerComposeUiImageId;
+
+    private DockerService dockerService;
+    private PropertiesService propertiesService;
+
+    // Images prefetched or being prefetched (guarded by this)
+    private Set<String> images = new LinkedHashSet<>();
+    private AtomicInteger prefetchedImages = new AtomicInteger();
+    private AtomicInteger failedImages = new AtomicInteger();
+    private ExecutorService prefetchExecutor;
+
+    @Autowired
+    public ImagePrefetchService(DockerService dockerService,
+            PropertiesService propertiesService) {
+        this.dockerService = dockerService;
+        this.propertiesService = propertiesService;
+    }
+
+    @PostConstruct
+    public void postConstruct() {
+        if (!dockerPrefetchEnabled) {
+            log.debug("Prefetch of Docker images disabled");
+            return;
+        }
+
+        Set<String> initialImages = new LinkedHashSet<>();
+        initialImages.add(noVncImageId);
+        initialImages.addAll(propertiesService.getDockerImages());
+        initialImages.add(dockerComposeUiImageId);
+        log.info("Prefetching {} Docker images in background",
+                initialImages.size());
+
+        // The executor is kept to prefetch the images of new browsers when
+        // the browser catalog is reloaded
+        prefetchExecutor = newFixedThreadPool(dockerPrefetchThreads);
+        prefetchAll(initialImages);
+        propertiesService.addCatalogListener(this::onCatalogReload);
+    }
+
+    private void onCatalogReload(BrowserCatalog browserCatalog) {
+        Set<String> newImages = prefetchAll(browserCatalog.getDockerImages());
+        if (!newImages.isEmpty()) {
+            log.info("Prefetching {} new Docker images in background",
+                    newImages.size());
+        }
+    }
+
+    private synchronized Set<String> prefetchAll(Collection<String> imageIds) {
+        Set<String> newImages = new LinkedHashSet<>();
+        for (String imageId : imageIds) {
+            if (images.add(imageId)) {
+                newImages.add(imageId);
+                prefetchExecutor.execute(() -> prefetch(imageId));
+            }
+        }
+        return newImages;
+    }
+
+    @PreDestroy
+    public void teardown() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+    private void prefetch(String imageId) {
+        try {
+            dockerService.pullImageIfNecessary(imageId);
+            log.info("Docker image {} ready ({} of {} prefetched)", imageId,
+                    prefetchedImages.incrementAndGet(), getTotalImages());
+
+        } catch (Exception e) {
+            failedImages.incrementAndGet();
+            log.warn("Exception prefetching Docker image {}: {}", imageId,
+                    e.getMessage());
+        }
+    }
+
+    public synchronized int getTotalImages() {
+        return images.size();
+    }
+
+    public int getPrefetchedImages() {
+        return prefetchedImages.get();
+    }
+
+    public int getFailedImages() {
+        return failedImages.get();
+    }
+
+    public boolean isPrefetchFinished() {
+        return prefetchedImages.get() + failedImages.get() >= getTotalImages();
+    }
+
+}
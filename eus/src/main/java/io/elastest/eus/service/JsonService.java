@@ -16,9 +16,15 @@
  */
 package io.elastest.eus.service;
 
+import static io.elastest.eus.session.RevisionLog.RECORDINGS;
+import static io.elastest.eus.session.RevisionLog.SESSIONS;
 import static org.springframework.http.HttpMethod.DELETE;
 import static org.springframework.http.HttpMethod.POST;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import org.json.JSONObject;
@@ -28,7 +34,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 
+import io.elastest.eus.browser.BrowserCapabilities;
+import io.elastest.eus.recording.RecordingIndex.Page;
+import io.elastest.eus.recording.RecordingMetadata;
+import io.elastest.eus.session.RevisionLog.Changes;
 import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.session.Subscription;
 
 /**
  * Service implementation for JSON utilities.
@@ -41,6 +52,15 @@ public class JsonService {
 
     private final Logger log = LoggerFactory.getLogger(JsonService.class);
 
+    // Commands of /window which are not followed by a window handle
+    static final String[] WINDOW_COMMANDS = { "size", "position",
+            "maximize", "minimize", "fullscreen", "rect", "handles", "handle",
+            "new" };
+
+    // Segments followed by a name (cookie, attribute, CSS property, etc.)
+    static final String[] NAMED_SEGMENTS = { "cookie", "attribute", "css",
+            "property", "key" };
+
     @Value("${webdriver.capabilities}")
     private String webdriverCapabilities;
 
@@ -71,6 +91,15 @@ public class JsonService {
     @Value("${ws.protocol.removeSession}")
     private String wsProtocolRemoveSession;
 
+    @Value("${ws.protocol.removeRecording}")
+    private String wsProtocolRemoveRecording;
+
+    @Value("${ws.protocol.sessionStatus}")
+    private String wsProtocolSessionStatus;
+
+    @Value("${ws.protocol.status}")
+    private String wsProtocolStatus;
+
     @Value("${ws.protocol.sessionId}")
     private String wsProtocolSessionId;
 
@@ -89,16 +118,70 @@ public class JsonService {
     @Value("${ws.protocol.creationTime}")
     private String wsProtocolCreationTime;
 
+    @Value("${ws.protocol.creationTimestamp}")
+    private String wsProtocolCreationTimestamp;
+
     @Value("${ws.protocol.ready}")
     private String wsProtocolReady;
 
     @Value("${ws.protocol.message}")
     private String wsProtocolMessage;
 
+    @Value("${ws.protocol.subscribe}")
+    private String wsProtocolSubscribe;
+
+    @Value("${ws.protocol.batch}")
+    private String wsProtocolBatch;
+
+    @Value("${ws.protocol.snapshot}")
+    private String wsProtocolSnapshot;
+
+    @Value("${ws.protocol.delta}")
+    private String wsProtocolDelta;
+
+    @Value("${ws.protocol.epoch}")
+    private String wsProtocolEpoch;
+
+    @Value("${ws.protocol.revision}")
+    private String wsProtocolRevision;
+
+    @Value("${ws.protocol.fromRevision}")
+    private String wsProtocolFromRevision;
+
+    @Value("${ws.protocol.removed}")
+    private String wsProtocolRemoved;
+
+    @Value("${ws.protocol.total}")
+    private String wsProtocolTotal;
+
+    @Value("${ws.protocol.page}")
+    private String wsProtocolPage;
+
+    @Value("${ws.protocol.size}")
+    private String wsProtocolSize;
+
+    @Value("${ws.dateformat}")
+    private String wsDateFormat;
+
     private JSONObject getCapabilities(String jsonMessage) {
         return (JSONObject) string2Json(jsonMessage).get(webdriverCapabilities);
     }
 
+    public BrowserCapabilities parseCapabilities(String jsonMessage) {
+        // The payload is parsed only once for all the capabilities, and
+        // missing values are not treated as errors
+        JSONObject capabilities = string2Json(jsonMessage)
+                .optJSONObject(webdriverCapabilities);
+        if (capabilities == null) {
+            return new BrowserCapabilities(null, "", "", false);
+        }
+        return new BrowserCapabilities(
+                capabilities.optString(webdriverBrowserName, null),
+                capabilities.optString(webdriverVersion),
+                capabilities.optString(webdriverPlatform),
+                capabilities.optBoolean(webdriverLive));
+    }
+
     public String getBrowser(String jsonMessage) {
         return (String) getCapabilities(jsonMessage).get(webdriverBrowserName);
     }
@@ -139,13 +222,88 @@ public class JsonService {
         return out;
     }
 
+    public String getEndpointTemplate(String path) {
+        // Identifiers (session, element, window handle, cookie and attribute
+        // names) are replaced by placeholders to keep a bounded set of
+        // endpoints in metrics. Path
+        // segments are compared in place, without splitting the path
+        StringBuilder template = new StringBuilder(path.length());
+        int previousStart = 0;
+        int previousEnd = 0;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start) {
+                template.append('/');
+                if (segmentEquals(path, previousStart, previousEnd,
+                        webdriverSessionMessage, 1)) {
+                    template.append("{sessionId}");
+                } else if ((segmentEquals(path, previousStart, previousEnd,
+                        "element", 0)
+                        || segmentEquals(path, previousStart, previousEnd,
+                                "shadow", 0))
+                        && !segmentEquals(path, start, end, "active", 0)) {
+                    template.append("{elementId}");
+                } else if (segmentEquals(path, previousStart, previousEnd,
+                        "window", 0) && !isWindowCommand(path, start, end)) {
+                    template.append("{windowHandle}");
+                } else if (segmentEquals(path, previousStart, previousEnd,
+                        "equals", 0)) {
+                    template.append("{otherId}");
+                } else if (isNamedSegment(path, previousStart, previousEnd)) {
+                    template.append("{name}");
+                } else {
+                    template.append(path, start, end);
+                }
+                previousStart = start;
+                previousEnd = end;
+            }
+            start = end + 1;
+        }
+        return template.length() > 0 ? template.toString() : "/";
+    }
+
+    private boolean isWindowCommand(String path, int start, int end) {
+        for (String command : WINDOW_COMMANDS) {
+            if (segmentEquals(path, start, end, command, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isNamedSegment(String path, int previousStart,
+            int previousEnd) {
+        for (String segment : NAMED_SEGMENTS) {
+            if (segmentEquals(path, previousStart, previousEnd, segment, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean segmentEquals(String path, int start, int end,
+            String value, int valueOffset) {
+        int length = end - start;
+        return length == value.length() - valueOffset
+                && path.regionMatches(start, value, valueOffset, length);
+    }
+
     public boolean isPostSessionRequest(HttpMethod method, String context) {
         return method == POST && context.equals(webdriverSessionMessage);
     }
 
     public boolean isDeleteSessionRequest(HttpMethod method, String context) {
-        return method == DELETE && context.startsWith(webdriverSessionMessage)
-                && countCharsInString(context, '/') == 2;
+        // Path like /session/{sessionId}, i.e. a single slash after the
+        // prefix (checked without counting the chars of the whole path)
+        if (method != DELETE || !context.startsWith(webdriverSessionMessage)) {
+            return false;
+        }
+        int slash = context.indexOf('/', webdriverSessionMessage.length());
+        return slash != -1 && context.indexOf('/', slash + 1) == -1;
     }
 
     public int countCharsInString(String string, char c) {
@@ -159,13 +317,9 @@ public class JsonService {
     }
 
     public boolean isLive(String jsonMessage) {
-        boolean out = false;
-        try {
-            out = (Boolean) getCapabilities(jsonMessage).get(webdriverLive);
-            log.trace("Received message from a live session");
-        } catch (Exception e) {
-            log.trace("Received message from a regular session (non-live)");
-        }
+        boolean out = parseCapabilities(jsonMessage).isLive();
+        log.trace("Received message from a {} session",
+                out ? "live" : "regular (non-live)");
         return out;
     }
 
@@ -187,6 +341,26 @@ public class JsonService {
         return jsonObject;
     }
 
+    public JSONObject removeRecordingJson(String sessionId) {
+        JSONObject removeRecording = new JSONObject();
+        removeRecording.put(wsProtocolId, sessionId);
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(wsProtocolRemoveRecording, removeRecording);
+        return jsonObject;
+    }
+
+    public JSONObject sessionStatusJson(SessionInfo sessionInfo,
+            String status) {
+        JSONObject sessionStatus = new JSONObject();
+        sessionStatus.put(wsProtocolId, sessionInfo.getSessionId());
+        sessionStatus.put(wsProtocolStatus, status);
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(wsProtocolSessionStatus, sessionStatus);
+        return jsonObject;
+    }
+
     public JSONObject sessionInfoToJson(SessionInfo sessionInfo) {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(wsProtocolId, sessionInfo.getSessionId());
@@ -197,15 +371,144 @@ public class JsonService {
         return jsonObject;
     }
 
+    public JSONObject sessionInfoToJson(SessionInfo sessionInfo,
+            String status) {
+        return sessionInfoToJson(sessionInfo).put(wsProtocolStatus, status);
+    }
+
     public JSONObject registryJson(SessionInfo sessionInfo) {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(wsProtocolId, sessionInfo.getSessionId());
         jsonObject.put(wsProtocolBrowser, sessionInfo.getBrowser());
         jsonObject.put(wsProtocolVersion, sessionInfo.getVersion());
         jsonObject.put(wsProtocolCreationTime, sessionInfo.getCreationTime());
+        jsonObject.put(wsProtocolCreationTimestamp,
+                sessionInfo.getCreationTimestamp());
         return jsonObject;
     }
 
+    public JSONObject withRevision(JSONObject jsonObject, long revision) {
+        return jsonObject.put(wsProtocolRevision, revision);
+    }
+
+    public boolean isSubscribeMessage(String jsonMessage) {
+        // Checked without parsing, since it is parsed after that
+        return jsonMessage.startsWith("{")
+                && jsonMessage.contains(JSONObject.quote(wsProtocolSubscribe));
+    }
+
+    public Subscription getSubscription(String jsonMessage) {
+        JSONObject subscribe = string2Json(jsonMessage)
+                .optJSONObject(wsProtocolSubscribe);
+        if (subscribe == null) {
+            return new Subscription(0, 0, false);
+        }
+        return new Subscription(subscribe.optLong(wsProtocolEpoch),
+                subscribe.optLong(wsProtocolRevision),
+                subscribe.optBoolean(wsProtocolBatch));
+    }
+
+    public JSONObject getRecordedSession(String metadataContent) {
+        return string2Json(metadataContent)
+                .optJSONObject(wsProtocolRecordedSession);
+    }
+
+    public String recordedSessionJson(String recordedSession) {
+        return "{" + JSONObject.quote(wsProtocolRecordedSession) + ":"
+                + recordedSession + "}";
+    }
+
+    public RecordingMetadata recordingMetadata(JSONObject recordedSession) {
+        String creationTime = recordedSession.optString(wsProtocolCreationTime,
+                null);
+        // Metadata stored by previous versions has no timestamp, only the
+        // formatted creation time
+        long timestamp = recordedSession.has(wsProtocolCreationTimestamp)
+                ? recordedSession.getLong(wsProtocolCreationTimestamp)
+                : parseCreationTime(creationTime);
+        return new RecordingMetadata(recordedSession.getString(wsProtocolId),
+                recordedSession.optString(wsProtocolBrowser, null),
+                recordedSession.optString(wsProtocolVersion, null),
+                creationTime, timestamp, recordedSession.toString());
+    }
+
+    public long parseCreationTime(String creationTime) {
+        if (creationTime == null) {
+            return 0;
+        }
+        try {
+            // SimpleDateFormat is not thread-safe
+            return new SimpleDateFormat(wsDateFormat).parse(creationTime)
+                    .getTime();
+        } catch (ParseException e) {
+            log.warn("Wrong creation time {} ({})", creationTime,
+                    e.getMessage());
+            return 0;
+        }
+    }
+
+    public String recordingsPageJson(Page page) {
+        StringBuilder json = new StringBuilder("{");
+        appendField(json, wsProtocolTotal, page.getTotal()).append(',');
+        appendField(json, wsProtocolPage, page.getPage()).append(',');
+        appendField(json, wsProtocolSize, page.getSize()).append(',');
+        json.append(JSONObject.quote(RECORDINGS)).append(':');
+        List<String> recordings = new ArrayList<>(
+                page.getRecordings().size());
+        for (RecordingMetadata recording : page.getRecordings()) {
+            recordings.add(recording.getJson());
+        }
+        appendArray(json, recordings, false);
+        return json.append('}').toString();
+    }
+
+    public String changesJson(Changes changes, long epoch) {
+        // Entries are already serialized, so the message is composed
+        // without parsing them again
+        StringBuilder json = new StringBuilder();
+        json.append('{').append(JSONObject.quote(changes.isSnapshot()
+                ? wsProtocolSnapshot
+                : wsProtocolDelta)).append(":{");
+        appendField(json, wsProtocolEpoch, epoch).append(',');
+        if (!changes.isSnapshot()) {
+            appendField(json, wsProtocolFromRevision,
+                    changes.getFromRevision()).append(',');
+        }
+        appendField(json, wsProtocolRevision, changes.getRevision());
+        for (String kind : new String[] { SESSIONS, RECORDINGS }) {
+            json.append(',').append(JSONObject.quote(kind)).append(':');
+            appendArray(json, changes.getUpdated(kind), false);
+        }
+        if (!changes.isSnapshot()) {
+            json.append(',').append(JSONObject.quote(wsProtocolRemoved))
+                    .append(":{").append(JSONObject.quote(SESSIONS))
+                    .append(':');
+            appendArray(json, changes.getRemoved(SESSIONS), true);
+            json.append(',').append(JSONObject.quote(RECORDINGS)).append(':');
+            appendArray(json, changes.getRemoved(RECORDINGS), true);
+            json.append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private StringBuilder appendField(StringBuilder json, String key,
+            long value) {
+        return json.append(JSONObject.quote(key)).append(':').append(value);
+    }
+
+    private void appendArray(StringBuilder json, List<String> values,
+            boolean quote) {
+        json.append('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(quote ? JSONObject.quote(values.get(i))
+                    : values.get(i));
+        }
+        json.append(']');
+    }
+
     public JSONObject getStatus() {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(wsProtocolReady, true);
@@ -214,9 +517,36 @@ public class JsonService {
     }
 
     public String sanitizeMessage(String message) {
-        return message != null
-                ? message.trim().replaceAll(" +", " ").replaceAll("\\r", "")
-                        .replaceAll("\\n", "").replaceAll("\\t", "")
-                : message;
+        if (message == null) {
+            return message;
+        }
+
+        // Single pass equivalent to trim, collapsing runs of spaces and
+        // removing CR, LF and tabs. Nothing is copied when the trimmed message
+        // is already clean
+        String trimmed = message.trim();
+        int length = trimmed.length();
+        int i = 0;
+        while (i < length && !isRemovable(trimmed, i)) {
+            i++;
+        }
+        if (i == length) {
+            return trimmed;
+        }
+
+        StringBuilder out = new StringBuilder(length);
+        out.append(trimmed, 0, i);
+        for (; i < length; i++) {
+            if (!isRemovable(trimmed, i)) {
+                out.append(trimmed.charAt(i));
+            }
+        }
+        return out.toString();
+    }
+
+    private boolean isRemovable(String message, int i) {
+        char c = message.charAt(i);
+        return c == '\r' || c == '\n' || c == '\t'
+                || (c == ' ' && i > 0 && message.charAt(i - 1) == ' ');
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.service;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.Timer.Sample;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Service implementation for metrics (timers of the session lifecycle phases,
+ * counters and gauges).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Service
+public class MetricsService {
+
+    public static final String SESSION_CREATION = "eus.session.creation";
+    public static final String SESSION_PHASE = "eus.session.phase";
+    public static final String DOCKER_PHASE = "eus.docker.phase";
+    public static final String WEBDRIVER_COMMAND = "eus.webdriver.command";
+    public static final String WEBDRIVER_HUB = "eus.webdriver.hub";
+    public static final String WEBDRIVER_OVERHEAD = "eus.webdriver.overhead";
+    public static final String WEBDRIVER_REQUEST_SIZE = "eus.webdriver.request.size";
+    public static final String WEBDRIVER_RESPONSE_SIZE = "eus.webdriver.response.size";
+    public static final String RECORDING_UPLOAD = "eus.recordings.upload";
+    public static final String RECORDING_UPLOAD_THROUGHPUT = "eus.recordings.upload.throughput";
+
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    public MetricsService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    public String scrape() {
+        // Prometheus text format, only available with its registry
+        if (meterRegistry instanceof PrometheusMeterRegistry) {
+            return ((PrometheusMeterRegistry) meterRegistry).scrape();
+        }
+        return "";
+    }
+
+    public Sample startTimer() {
+        return Timer.start(meterRegistry);
+    }
+
+    public void stopSessionCreationTimer(Sample sample, String browser,
+            String version, boolean success) {
+        sample.stop(timer(SESSION_CREATION, "browser", tagValue(browser),
+                "version", tagValue(version), "outcome",
+                success ? "success" : "error"));
+    }
+
+    public void stopSessionPhaseTimer(Sample sample, String phase) {
+        sample.stop(timer(SESSION_PHASE, "phase", phase));
+    }
+
+    public void stopDockerPhaseTimer(Sample sample, String phase,
+            String imageId) {
+        sample.stop(
+                timer(DOCKER_PHASE, "phase", phase, "image", tagValue(imageId)));
+    }
+
+    public Tags webDriverCommandTags(String endpoint, String method,
+            String browser, String version) {
+        return Tags.of("endpoint", endpoint, "method", method, "browser",
+                tagValue(browser), "version", tagValue(version));
+    }
+
+    public long stopWebDriverHubTimer(Sample sample, Tags tags) {
+        return sample.stop(timer(WEBDRIVER_HUB, tags));
+    }
+
+    public void stopWebDriverCommandTimer(Sample sample, Tags tags,
+            long excludedNanos, long requestBytes, long responseBytes) {
+        // The overhead of the proxy is the part of the command not spent
+        // waiting for the hub (nor starting the browser containers)
+        long commandNanos = sample.stop(timer(WEBDRIVER_COMMAND, tags));
+        timer(WEBDRIVER_OVERHEAD, tags).record(
+                Math.max(0, commandNanos - excludedNanos), NANOSECONDS);
+        size(WEBDRIVER_REQUEST_SIZE, tags).record(requestBytes);
+        size(WEBDRIVER_RESPONSE_SIZE, tags).record(responseBytes);
+    }
+
+    public void recordUpload(long bytes, long nanos) {
+        timer(RECORDING_UPLOAD).record(nanos, NANOSECONDS);
+        if (nanos > 0) {
+            DistributionSummary.builder(RECORDING_UPLOAD_THROUGHPUT)
+                    .baseUnit("bytes/s").publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(bytes * 1e9 / nanos);
+        }
+    }
+
+    public <T> void gauge(String name, String description, T object,
+            ToDoubleFunction<T> function) {
+        Gauge.builder(name, object, function).description(description)
+                .register(meterRegistry);
+    }
+
+    public <T> void functionCounter(String name, String description,
+            T object, ToDoubleFunction<T> function) {
+        FunctionCounter.builder(name, object, function)
+                .description(description).register(meterRegistry);
+    }
+
+    private String tagValue(String value) {
+        return value != null && !value.isEmpty() ? value : "unknown";
+    }
+
+    private Timer timer(String name, String... tags) {
+        return timer(name, Tags.of(tags));
+    }
+
+    private Timer timer(String name, Iterable<Tag> tags) {
+        return Timer.builder(name).tags(tags).publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary size(String name, Iterable<Tag> tags) {
+        return DistributionSummary.builder(name).baseUnit("bytes").tags(tags)
+                .publishPercentileHistogram().register(meterRegistry);
+    }
+
+}
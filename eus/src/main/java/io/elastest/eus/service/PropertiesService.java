@@ -16,22 +16,33 @@
  */
 package io.elastest.eus.service;
 
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import io.elastest.eus.browser.BrowserCatalog;
+import io.elastest.eus.browser.BrowserCatalogListener;
+
 /**
  * Service implementation for properties.
  *
@@ -43,8 +54,7 @@ public class PropertiesService {
 
     private final Logger log = LoggerFactory.getLogger(PropertiesService.class);
 
-    private Map<String, Map<String, String>> browsers = new TreeMap<>(
-            Collections.reverseOrder());
+    private volatile BrowserCatalog browserCatalog;
 
     @Value("${properties.filename}")
     private String propertiesFilename;
@@ -55,53 +65,88 @@ public class PropertiesService {
     @Value("${webdriver.any.platform}")
     private String webdriverAnyPlatform;
 
-    @Value("${webdriver.browserName}")
-    private String webdriverBrowserName;
-
-    @Value("${webdriver.version}")
-    private String webdriverVersion;
+    @Value("${properties.catalog.file}")
+    private String catalogFile;
 
-    @Value("${webdriver.platform}")
-    private String webdriverPlatform;
+    @Value("${properties.catalog.reload.ms}")
+    private long catalogReloadMs;
 
-    @Value("${properties.docker.image.key}")
-    private String propertiesDockerImageKey;
+    private ScheduledExecutorService catalogReloadExecutor;
+    private long catalogLastModified;
+    private List<BrowserCatalogListener> catalogListeners = new CopyOnWriteArrayList<>();
 
     @PostConstruct
     private void postConstruct() throws IOException {
         log.debug("Getting existing browsers from {}", propertiesFilename);
-        Properties properties = new Properties();
-
         try (final InputStream stream = this.getClass().getClassLoader()
                 .getResourceAsStream(propertiesFilename)) {
+            browserCatalog = createCatalog(stream);
+        }
 
-            properties.load(stream);
+        // The external catalog (if any) replaces the bundled one, and it is
+        // reloaded when modified
+        if (catalogFile != null && !catalogFile.isEmpty()) {
+            reloadCatalog();
+            catalogReloadExecutor = newSingleThreadScheduledExecutor();
+            catalogReloadExecutor.scheduleWithFixedDelay(this::reloadCatalog,
+                    catalogReloadMs, catalogReloadMs, MILLISECONDS);
+        }
+    }
 
-            Set<Object> keySet = properties.keySet();
-            for (Object key : keySet) {
-                log.trace("{} {}", key, properties.get(key));
-                browsers.put((String) key, createEntryFromKey((String) key,
-                        (String) properties.get(key)));
-            }
+    @PreDestroy
+    public void teardown() {
+        if (catalogReloadExecutor != null) {
+            catalogReloadExecutor.shutdownNow();
+        }
+    }
+
+    private BrowserCatalog createCatalog(InputStream stream)
+            throws IOException {
+        Properties properties = new Properties();
+        properties.load(stream);
 
+        // Sorted to have a deterministic order of keys and images
+        Map<String, String> entries = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            log.trace("{} {}", key, properties.getProperty(key));
+            entries.put(key, properties.getProperty(key));
         }
+        return new BrowserCatalog(entries, propertiesSeparatorChar);
     }
 
-    private Map<String, String> createEntryFromKey(String key,
-            String dockerImage) {
-        Map<String, String> entry = new HashMap<>();
+    private void reloadCatalog() {
+        File file = new File(catalogFile);
+        long lastModified = file.lastModified();
+        if (lastModified == 0 || lastModified == catalogLastModified) {
+            return;
+        }
+        try (InputStream stream = new FileInputStream(file)) {
+            browserCatalog = createCatalog(stream);
+            catalogLastModified = lastModified;
+            log.info("Browser catalog loaded from {} ({} browsers)",
+                    catalogFile, browserCatalog.size());
+        } catch (Exception e) {
+            log.warn("Exception loading browser catalog from {}: {}",
+                    catalogFile, e.getMessage());
+            return;
+        }
 
-        String[] split = key.split(propertiesSeparatorChar);
-        entry.put(webdriverBrowserName, split[0]);
-        entry.put(webdriverVersion, split[1]);
-        entry.put(webdriverPlatform, split[2]);
-        entry.put(propertiesDockerImageKey, dockerImage);
+        for (BrowserCatalogListener listener : catalogListeners) {
+            try {
+                listener.onCatalogReload(browserCatalog);
+            } catch (Exception e) {
+                log.warn("Exception notifying browser catalog reload: {}",
+                        e.getMessage());
+            }
+        }
+    }
 
-        return entry;
+    public void addCatalogListener(BrowserCatalogListener listener) {
+        catalogListeners.add(listener);
     }
 
     public String getDockerImageFromKey(String key) {
-        return browsers.get(key).get(propertiesDockerImageKey);
+        return browserCatalog.getDockerImage(key);
     }
 
     public String getDockerImageFromCapabilities(String browserName,
@@ -116,27 +161,12 @@ public class PropertiesService {
         log.debug("Capabilities: browserName={}, version={}, platform={}",
                 browserName, version, platform);
 
-        String out = null;
-        for (String key : browsers.keySet()) {
-            if (key.contains(browserName)) {
-                if (version != null) {
-                    if (key.contains(version) && platformMatch(key, platform)) {
-                        out = key;
-                    }
-                } else if (platformMatch(key, platform)) {
-                    out = key;
-                }
-                if (out != null) {
-                    break;
-                }
-            }
-        }
-        return out;
+        return browserCatalog.findKey(browserName, version,
+                isAnyPlatform(platform) ? null : platform);
     }
 
-    public boolean platformMatch(String key, String platform) {
-        return (platform != null && key.contains(platform)) || platform == null
-                || platform.equals("")
+    public boolean isAnyPlatform(String platform) {
+        return platform == null || platform.equals("")
                 || platform.equalsIgnoreCase(webdriverAnyPlatform);
     }
 
@@ -144,4 +174,12 @@ public class PropertiesService {
         return key.split(propertiesSeparatorChar)[1];
     }
 
+    public Set<String> getKeys() {
+        return browserCatalog.getKeys();
+    }
+
+    public Set<String> getDockerImages() {
+        return new LinkedHashSet<>(browserCatalog.getDockerImages());
+    }
+
 }
@@ -18,23 +18,31 @@ package io.elastest.eus.service;
 
 import static java.nio.file.Files.readAllBytes;
 import static java.nio.file.Paths.get;
-import static java.util.Arrays.copyOfRange;
 import static java.util.Arrays.stream;
-import static java.util.stream.Collectors.toList;
-import static org.apache.commons.io.FileUtils.writeByteArrayToFile;
-import static org.apache.commons.io.IOUtils.toByteArray;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.OK;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FileUtils;
 import org.json.JSONObject;
@@ -47,7 +55,21 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import io.elastest.eus.EusException;
+import io.elastest.eus.docker.TarExtractor;
+import io.elastest.eus.recording.RangeFileSender;
+import io.elastest.eus.recording.RecordingDiskCache;
+import io.elastest.eus.recording.RecordingDiskCache.CachedFile;
+import io.elastest.eus.recording.RecordingIndex;
+import io.elastest.eus.recording.RecordingIndex.Page;
+import io.elastest.eus.recording.RecordingMetadata;
+import io.elastest.eus.recording.RecordingQuery;
+import io.elastest.eus.recording.RecordingUploader;
+import io.elastest.eus.recording.RecordingUploader.Upload;
 import io.elastest.eus.session.SessionInfo;
+import io.micrometer.core.instrument.Timer.Sample;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
 
 /**
  * Service implementation for recording capabilities.
@@ -72,18 +94,45 @@ public class RecordingService {
     @Value("${registry.contextPath}")
     private String registryContextPath;
 
+    @Value("${registry.recording.contentType}")
+    private String recordingContentType;
+
+    @Value("${registry.cache.folder}")
+    private String registryCacheFolder;
+
+    @Value("${registry.cache.max.bytes}")
+    private long registryCacheMaxBytes;
+
     @Value("${registry.metadata.extension}")
     private String registryMetadataExtension;
 
     @Value("${edm.alluxio.url}")
     private String edmAlluxioUrl;
 
+    @Value("${edm.alluxio.upload.threads}")
+    private int uploadThreads;
+
+    @Value("${edm.alluxio.upload.queue.size}")
+    private int uploadQueueSize;
+
+    @Value("${edm.alluxio.upload.max.attempts}")
+    private int uploadMaxAttempts;
+
+    @Value("${edm.alluxio.upload.retry.delay.ms}")
+    private long uploadRetryDelayMs;
+
     @Value("${novnc.script.filename}")
     private String novncScript;
 
     private DockerService dockerService;
     private JsonService jsonService;
     private AlluxioService alluxioService;
+    private MetricsService metricsService;
+    private RecordingIndex recordingIndex = new RecordingIndex();
+    private RangeFileSender rangeFileSender = new RangeFileSender();
+    private RecordingDiskCache recordingCache;
+    private RecordingUploader recordingUploader;
+    private volatile boolean recordingIndexLoaded = false;
 
     @PostConstruct
     private void postConstruct() {
@@ -91,14 +140,33 @@ public class RecordingService {
         if (!edmAlluxioUrl.isEmpty() && !edmAlluxioUrl.endsWith("/")) {
             edmAlluxioUrl += "/";
         }
+
+        if (!edmAlluxioUrl.isEmpty()) {
+            initRecordingCache();
+            initRecordingUploader();
+        }
+
+        metricsService.gauge("eus.recordings.indexed",
+                "Recordings in the in-memory index", recordingIndex,
+                RecordingIndex::size);
+
+        // The index is built at startup, and retried on demand if the storage
+        // is not available yet
+        try {
+            loadRecordingIndex();
+        } catch (Exception e) {
+            log.warn("Exception loading recording index: {}", e.getMessage());
+        }
     }
 
     @Autowired
     public RecordingService(DockerService dockerService,
-            JsonService jsonService, AlluxioService alluxioService) {
+            JsonService jsonService, AlluxioService alluxioService,
+            MetricsService metricsService) {
         this.dockerService = dockerService;
         this.jsonService = jsonService;
         this.alluxioService = alluxioService;
+        this.metricsService = metricsService;
     }
 
     public void startRecording(SessionInfo sessionInfo)
@@ -112,8 +180,10 @@ public class RecordingService {
         log.debug("Recording session {} in container {} ({}:{})", sessionId,
                 noNvcContainerName, hubContainerIp, hubContainerPort);
 
+        Sample sample = metricsService.startTimer();
         dockerService.execCommand(noNvcContainerName, false, novncScript,
                 "--start", sessionId, hubContainerIp, hubContainerPort);
+        metricsService.stopSessionPhaseTimer(sample, "recording.start");
     }
 
     public void stopRecording(SessionInfo sessionInfo)
@@ -121,8 +191,10 @@ public class RecordingService {
         String noNvcContainerName = sessionInfo.getVncContainerName();
         log.trace("Stopping recording of container {}", noNvcContainerName);
 
+        Sample sample = metricsService.startTimer();
         dockerService.execCommand(noNvcContainerName, true, novncScript,
                 "--end");
+        metricsService.stopSessionPhaseTimer(sample, "recording.stop");
     }
 
     public void storeRecording(SessionInfo sessionInfo)
@@ -132,50 +204,238 @@ public class RecordingService {
         String recordingFileName = sessionId + registryRecordingExtension;
 
         // Convert format of recording to mp4
+        Sample convertSample = metricsService.startTimer();
         dockerService.execCommand(noNvcContainerName, true, novncScript,
                 "--convert", sessionId, recordingFileName);
+        metricsService.stopSessionPhaseTimer(convertSample,
+                "recording.convert");
+
+        Sample storeSample = metricsService.startTimer();
 
         if (edmAlluxioUrl.isEmpty()) {
             // If EDM Alluxio is not available, recording is stored locally
             String target = registryFolder + recordingFileName;
 
-            InputStream inputStream = dockerService.getFileFromContainer(
-                    noNvcContainerName, recordingFileName);
+            // The mp4 file is streamed from the tar archive to disk (not kept
+            // in memory)
+            try (InputStream inputStream = dockerService
+                    .getFileFromContainer(noNvcContainerName,
+                            recordingFileName)) {
+                if (inputStream == null) {
+                    throw new EusException(
+                            "Container " + noNvcContainerName + " not found");
+                }
+                long size = new TarExtractor(inputStream)
+                        .extract(recordingFileName, get(target));
+                log.debug("Recording {} stored ({} bytes)", target, size);
+            }
+
+        } else {
+            // If EDM Alluxio is available, recording is streamed from the
+            // container to Alluxio in the upload executor
+            String checksum = getContainerChecksum(noNvcContainerName,
+                    recordingFileName);
+            Upload upload = awaitUpload(recordingUploader.upload(
+                    recordingFileName, () -> uploadRecording(noNvcContainerName,
+                            recordingFileName, checksum)));
+            metricsService.recordUpload(upload.getBytes(), upload.getNanos());
+        }
+        metricsService.stopSessionPhaseTimer(storeSample, "recording.store");
+    }
+
+    private long uploadRecording(String containerName, String recordingFileName,
+            String checksum) throws IOException {
+        try (InputStream inputStream = dockerService
+                .getFileFromContainer(containerName, recordingFileName)) {
+            if (inputStream == null) {
+                throw new EusException(
+                        "Container " + containerName + " not found");
+            }
+            long size = new TarExtractor(inputStream).seek(recordingFileName);
+
+            // The checksum is computed while the content is streamed
+            MessageDigest digest = sha256();
+            Source source = Okio
+                    .source(new DigestInputStream(inputStream, digest));
+            if (!alluxioService.writeFile(recordingFileName, source, size)) {
+                throw new EusException(
+                        "Error writing " + recordingFileName + " to Alluxio");
+            }
+            String uploadedChecksum = ByteString.of(digest.digest()).hex();
+            if (checksum != null
+                    && !checksum.equalsIgnoreCase(uploadedChecksum)) {
+                throw new EusException("Wrong checksum of " + recordingFileName
+                        + " (" + uploadedChecksum + " instead of " + checksum
+                        + ")");
+            }
+            return size;
+
+        } catch (IOException | RuntimeException e) {
+            // Partial uploads are not kept in Alluxio
+            try {
+                alluxioService.deleteFile(recordingFileName);
+            } catch (Exception e1) {
+                log.trace("Exception deleting {} from Alluxio: {}",
+                        recordingFileName, e1.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private String getContainerChecksum(String containerName, String fileName)
+            throws IOException, InterruptedException {
+        // Output of sha256sum is "<checksum>  <file name>"
+        String output = dockerService.execCommand(containerName, true,
+                "sha256sum", fileName);
+        String checksum = output != null ? output.trim().split("\\s+")[0]
+                : "";
+        if (!checksum.matches("[0-9a-fA-F]{64}")) {
+            log.warn("Checksum of {} not available in container {}: {}",
+                    fileName, containerName, output);
+            return null;
+        }
+        return checksum;
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Not propagating NoSuchAlgorithmException to improve readability
+            throw new EusException("SHA-256 not available", e);
+        }
+    }
+
+    private Upload awaitUpload(CompletableFuture<Upload> upload)
+            throws IOException, InterruptedException {
+        try {
+            return upload.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new EusException("Exception uploading recording", cause);
+        }
+    }
+
+    private void initRecordingUploader() {
+        recordingUploader = new RecordingUploader(uploadThreads,
+                uploadQueueSize, uploadMaxAttempts, uploadRetryDelayMs);
+
+        metricsService.gauge("eus.recordings.upload.active",
+                "Recordings being uploaded to Alluxio", recordingUploader,
+                RecordingUploader::getActive);
+        metricsService.functionCounter("eus.recordings.upload.bytes",
+                "Bytes of recordings uploaded to Alluxio", recordingUploader,
+                RecordingUploader::getUploadedBytes);
+        metricsService.functionCounter("eus.recordings.upload.retries",
+                "Retried attempts of recording uploads", recordingUploader,
+                RecordingUploader::getRetries);
+        metricsService.functionCounter("eus.recordings.upload.failures",
+                "Recording uploads failed after all attempts",
+                recordingUploader, RecordingUploader::getFailures);
+    }
+
+    @PreDestroy
+    private void preDestroy() {
+        if (recordingUploader != null) {
+            recordingUploader.close();
+        }
+    }
 
-            // -------------
-            // Workaround due to strange behavior of docker-java
-            // it seems that copyArchiveFromContainerCmd not works correctly
+    private void initRecordingCache() {
+        // Recordings downloaded from Alluxio are kept in a bounded cache
+        recordingCache = new RecordingDiskCache(get(registryCacheFolder),
+                registryCacheMaxBytes);
+        try {
+            recordingCache.load();
+        } catch (IOException e) {
+            String errorMessage = "Exception loading recording cache in "
+                    + registryCacheFolder;
+            // Not propagating IOException to improve readability
+            throw new EusException(errorMessage, e);
+        }
 
-            byte[] bytes = toByteArray(inputStream);
+        metricsService.gauge("eus.recordings.cache.size",
+                "Bytes of recordings in the local cache", recordingCache,
+                RecordingDiskCache::getSizeBytes);
+        metricsService.gauge("eus.recordings.cache.entries",
+                "Recordings in the local cache", recordingCache,
+                RecordingDiskCache::size);
+        metricsService.functionCounter("eus.recordings.cache.hits",
+                "Recordings served from the local cache", recordingCache,
+                RecordingDiskCache::getHits);
+        metricsService.functionCounter("eus.recordings.cache.misses",
+                "Recordings not found in the local cache", recordingCache,
+                RecordingDiskCache::getMisses);
+        metricsService.functionCounter("eus.recordings.cache.evictions",
+                "Recordings evicted from the local cache", recordingCache,
+                RecordingDiskCache::getEvictions);
+        metricsService.functionCounter("eus.recordings.cache.evicted.bytes",
+                "Bytes of recordings evicted from the local cache",
+                recordingCache, RecordingDiskCache::getEvictedBytes);
+    }
 
-            int i = 0;
-            for (; i < bytes.length; i++) {
-                char c1 = (char) bytes[i];
-                if (c1 == 'f') {
-                    char c2 = (char) bytes[i + 1];
-                    char c3 = (char) bytes[i + 2];
-                    if (c2 == 't' && c3 == 'y') {
-                        break;
+    private void loadRecordingIndex() throws IOException {
+        if (!recordingIndexLoaded) {
+            synchronized (recordingIndex) {
+                if (!recordingIndexLoaded) {
+                    Sample sample = metricsService.startTimer();
+                    int skipped = forEachStoredMetadata(this::indexMetadata);
+                    metricsService.stopSessionPhaseTimer(sample,
+                            "recording.index");
+                    if (skipped > 0) {
+                        // Not marked as loaded, so that it is completed in
+                        // the next request (fetched files are cached)
+                        log.warn("Recording index incomplete ({} recordings, "
+                                + "{} metadata files skipped)",
+                                recordingIndex.size(), skipped);
+                    } else {
+                        recordingIndexLoaded = true;
+                        log.debug("Recording index loaded ({} recordings)",
+                                recordingIndex.size());
                     }
                 }
             }
+        }
+    }
 
-            writeByteArrayToFile(new File(target),
-                    copyOfRange(bytes, i - 4, bytes.length));
-            // -------------
-
-        } else {
-            // If EDM Alluxio is available, recording is stored in Alluxio
-            dockerService.execCommand(noNvcContainerName, true, novncScript,
-                    "--upload", edmAlluxioUrl, recordingFileName);
+    private void indexMetadata(String metadata) {
+        try {
+            JSONObject recordedSession = jsonService
+                    .getRecordedSession(metadata);
+            if (recordedSession != null) {
+                recordingIndex
+                        .put(jsonService.recordingMetadata(recordedSession));
+            }
+        } catch (Exception e) {
+            log.warn("Wrong recording metadata {} ({})", metadata,
+                    e.getMessage());
         }
     }
 
+    public List<RecordingMetadata> getRecordings() throws IOException {
+        loadRecordingIndex();
+        return recordingIndex.getAll();
+    }
+
+    public ResponseEntity<String> getRecordings(RecordingQuery query)
+            throws IOException {
+        loadRecordingIndex();
+        Page page = recordingIndex.query(query);
+        return new ResponseEntity<>(jsonService.recordingsPageJson(page), OK);
+    }
+
     public void storeMetadata(SessionInfo sessionInfo) throws IOException {
         String sessionId = sessionInfo.getSessionId();
         String metadataFileName = sessionId + registryMetadataExtension;
         JSONObject sessionInfoToJson = jsonService
                 .recordedSessionJson(sessionInfo);
+        Sample sample = metricsService.startTimer();
 
         if (edmAlluxioUrl.isEmpty()) {
             // If EDM Alluxio is not available, metadata is stored locally
@@ -189,6 +449,10 @@ public class RecordingService {
             alluxioService.writeFile(metadataFileName,
                     sessionInfoToJson.toString().getBytes());
         }
+        metricsService.stopSessionPhaseTimer(sample, "metadata.store");
+
+        recordingIndex.put(jsonService
+                .recordingMetadata(jsonService.registryJson(sessionInfo)));
     }
 
     public ResponseEntity<String> getRecording(String sessionId)
@@ -198,20 +462,48 @@ public class RecordingService {
 
         // By default the response is the local path for the recording (this
         // applies to the case of locally stored, and also to the case that the
-        // recording has been previously downloaded from Alluxio)
+        // recording has been previously downloaded from Alluxio). It can also
+        // be downloaded with byte ranges in /recording/{sessionId}
         String urlResponse = contextPath + registryContextPath + "/"
                 + recordingFileName;
+        getLocalRecording(recordingFileName);
 
-        if (!edmAlluxioUrl.isEmpty()) {
-            // If EDM Alluxio is available, recording is store in Alluxio
-            File targetFile = new File(registryFolder + recordingFileName);
-            if (!targetFile.exists()) {
-                byte[] file = alluxioService.getFile(recordingFileName);
-                writeByteArrayToFile(targetFile, file);
-            }
+        return new ResponseEntity<>(urlResponse, status);
+    }
+
+    public void downloadRecording(String sessionId,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String recordingFileName = sessionId + registryRecordingExtension;
+        if (edmAlluxioUrl.isEmpty()) {
+            rangeFileSender.send(get(registryFolder + recordingFileName),
+                    recordingContentType, request, response);
+            return;
         }
 
-        return new ResponseEntity<>(urlResponse, status);
+        // Opened from the cache, so that it cannot be evicted while served
+        try (CachedFile cached = openCachedRecording(recordingFileName)) {
+            rangeFileSender.send(cached.getChannel(), cached.getLastModified(),
+                    recordingContentType, request, response);
+        }
+    }
+
+    private Path getLocalRecording(String recordingFileName)
+            throws IOException {
+        if (edmAlluxioUrl.isEmpty()) {
+            return get(registryFolder + recordingFileName);
+        }
+
+        // If EDM Alluxio is available, recording is store in Alluxio (and
+        // fetched only once to the local cache)
+        return recordingCache.get(recordingFileName,
+                target -> alluxioService.readFile(recordingFileName, target));
+    }
+
+    private CachedFile openCachedRecording(String recordingFileName)
+            throws IOException {
+        return recordingCache.open(recordingFileName,
+                target -> alluxioService.readFile(recordingFileName, target));
     }
 
     public ResponseEntity<String> deleteRecording(String sessionId)
@@ -232,9 +524,12 @@ public class RecordingService {
         } else {
             // If EDM Alluxio is available, deleting is done in Alluxio
             deleteRecording = alluxioService.deleteFile(recordingFileName);
+            recordingCache.remove(recordingFileName);
             deleteMetadata = alluxioService.deleteFile(metadataFileName);
 
         }
+        recordingIndex.remove(sessionId);
+
         HttpStatus status = deleteRecording && deleteMetadata ? OK
                 : INTERNAL_SERVER_ERROR;
         log.debug("... response {}", status);
@@ -242,28 +537,33 @@ public class RecordingService {
     }
 
     public List<String> getStoredMetadataContent() throws IOException {
-        List<String> metadataContent;
+        List<String> metadataContent = new ArrayList<>();
+        forEachStoredMetadata(metadataContent::add);
+        return metadataContent;
+    }
 
+    /**
+     * Deliver the content of the stored metadata files to the consumer.
+     * Returns the number of files skipped (i.e. failed or timed out).
+     */
+    public int forEachStoredMetadata(Consumer<String> consumer)
+            throws IOException {
         if (edmAlluxioUrl.isEmpty()) {
             // If EDM Alluxio is not available, recordings and metadata are
             // stored locally
             File[] metadataFiles = new File(registryFolder)
                     .listFiles((dir, name) -> name.toLowerCase()
                             .endsWith(registryMetadataExtension));
-            metadataContent = stream(metadataFiles)
-                    .map(this::getLocalFileContent).collect(toList());
+            stream(metadataFiles).map(this::getLocalFileContent)
+                    .forEach(consumer);
+            return 0;
 
         } else {
             // If EDM Alluxio is available, recordings and metadata are stored
-            // in Alluxio
-            List<String> metadataFileList = alluxioService
-                    .getMetadataFileList();
-            metadataContent = metadataFileList.stream()
-                    .map(alluxioService::getFileAsString).collect(toList());
+            // in Alluxio (fetched concurrently, in completion order)
+            return alluxioService.fetchMetadata(consumer);
 
         }
-
-        return metadataContent;
     }
 
     private String getLocalFileContent(File file) {
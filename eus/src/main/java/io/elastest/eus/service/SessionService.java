@@ -16,17 +16,31 @@
  */
 package io.elastest.eus.service;
 
+import static io.elastest.eus.session.RevisionLog.RECORDINGS;
+import static io.elastest.eus.session.RevisionLog.SESSIONS;
 import static java.lang.Integer.parseInt;
-import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -35,8 +49,15 @@ import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import io.elastest.eus.EusException;
+import io.elastest.eus.recording.RecordingMetadata;
+import io.elastest.eus.session.ClientOutboundQueue;
+import io.elastest.eus.session.ClientOutboundQueue.Limits;
+import io.elastest.eus.session.ClientOutboundQueue.OverflowPolicy;
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.RevisionLog.Changes;
 import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.session.SessionTimeoutWheel;
+import io.elastest.eus.session.Subscription;
 
 /**
  * Session service (WebSocket and session registry).
@@ -48,6 +69,10 @@ public class SessionService extends TextWebSocketHandler {
 
     private final Logger log = LoggerFactory.getLogger(SessionService.class);
 
+    public static final String STATUS_STOPPING = "stopping";
+    public static final String STATUS_STOPPED = "stopped";
+    public static final String STATUS_FAILED = "failed";
+
     @Value("${ws.protocol.getSessions}")
     private String wsProtocolGetSessions;
 
@@ -63,20 +88,141 @@ public class SessionService extends TextWebSocketHandler {
     @Value("${registry.metadata.extension}")
     private String registryMetadataExtension;
 
-    private Map<String, WebSocketSession> activeSessions = new ConcurrentHashMap<>();
+    @Value("${session.timeout.wheel.tick.ms}")
+    private long timeoutWheelTickMs;
+
+    @Value("${session.timeout.wheel.size}")
+    private int timeoutWheelSize;
+
+    @Value("${session.teardown.threads}")
+    private int teardownThreads;
+
+    @Value("${session.teardown.queue.size}")
+    private int teardownQueueSize;
+
+    @Value("${session.teardown.shutdown.timeout.sec}")
+    private int teardownShutdownTimeoutSec;
+
+    @Value("${ws.client.queue.size}")
+    private int wsClientQueueSize;
+
+    @Value("${ws.client.batch.size}")
+    private int wsClientBatchSize;
+
+    @Value("${ws.client.buffer.size.limit}")
+    private int wsClientBufferSizeLimit;
+
+    @Value("${ws.client.send.time.limit.ms}")
+    private long wsClientSendTimeLimitMs;
+
+    @Value("${ws.client.overflow.policy}")
+    private OverflowPolicy wsClientOverflowPolicy;
+
+    @Value("${ws.client.send.threads}")
+    private int wsClientSendThreads;
+
+    private Map<String, ClientOutboundQueue> activeSessions = new ConcurrentHashMap<>();
     private Map<String, SessionInfo> sessionRegistry = new ConcurrentHashMap<>();
-    private ScheduledExecutorService timeoutExecutor = newScheduledThreadPool(
-            1);
+    private ExecutorService teardownExecutor;
+    private ExecutorService expirationExecutor;
+    private ExecutorService sendExecutor;
+    private ScheduledExecutorService stallCheckExecutor;
+    private AtomicLong wsClientOverflows = new AtomicLong();
+    private SessionTimeoutWheel timeoutWheel;
+    private volatile boolean recordingsLoaded = false;
 
     private DockerService dockerService;
     private JsonService jsonService;
     private RecordingService recordingService;
+    private MetricsService metricsService;
+    private RevisionLog revisionLog;
 
     public SessionService(DockerService dockerService, JsonService jsonService,
-            RecordingService recordingService) {
+            RecordingService recordingService, MetricsService metricsService,
+            RevisionLog revisionLog) {
         this.dockerService = dockerService;
         this.jsonService = jsonService;
         this.recordingService = recordingService;
+        this.metricsService = metricsService;
+        this.revisionLog = revisionLog;
+    }
+
+    @PostConstruct
+    public void postConstruct() {
+        metricsService.gauge("eus.sessions.active", "Active browser sessions",
+                sessionRegistry, Map::size);
+        metricsService.gauge("eus.websocket.clients",
+                "Connected WebSocket clients", activeSessions, Map::size);
+        metricsService.gauge("eus.websocket.clients.queued.messages",
+                "Messages queued for all WebSocket clients", activeSessions,
+                clients -> clients.values().stream()
+                        .mapToInt(ClientOutboundQueue::size).sum());
+        metricsService.gauge("eus.websocket.clients.queued.bytes",
+                "Bytes queued for all WebSocket clients", activeSessions,
+                clients -> clients.values().stream()
+                        .mapToLong(ClientOutboundQueue::getQueuedBytes)
+                        .sum());
+        metricsService.gauge("eus.websocket.clients.queue.max",
+                "Messages queued for the slowest WebSocket client",
+                activeSessions,
+                clients -> clients.values().stream()
+                        .mapToInt(ClientOutboundQueue::size).max()
+                        .orElse(0));
+        metricsService.functionCounter("eus.websocket.clients.overflows",
+                "Overflows of WebSocket client queues", wsClientOverflows,
+                AtomicLong::get);
+
+        // Bounded pool and queue. When both are full, the teardown is done in
+        // the caller thread (back-pressure instead of discarding cleanups)
+        teardownExecutor = new ThreadPoolExecutor(teardownThreads,
+                teardownThreads, 0L, MILLISECONDS,
+                new LinkedBlockingQueue<>(teardownQueueSize),
+                new CallerRunsPolicy());
+
+        // Expired sessions are torn down in their own executor, which never
+        // runs tasks in the caller (i.e. the wheel thread). Its queue is not
+        // bounded, but each session expires at most once
+        expirationExecutor = new ThreadPoolExecutor(teardownThreads,
+                teardownThreads, 0L, MILLISECONDS, new LinkedBlockingQueue<>());
+        timeoutWheel = new SessionTimeoutWheel(timeoutWheelTickMs,
+                timeoutWheelSize, expirationExecutor, this::expireSession);
+        timeoutWheel.start();
+
+        // Messages to WebSocket clients are sent by a fixed number of
+        // threads. Its queue is not bounded, but it holds at most one drain
+        // task per client. A slow client can keep a thread only up to the
+        // send time limit: stalled clients are closed (and its send
+        // interrupted) by the periodic check, even if no more messages are
+        // sent to them
+        sendExecutor = new ThreadPoolExecutor(wsClientSendThreads,
+                wsClientSendThreads, 0L, MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        long stallCheckMs = Math.max(wsClientSendTimeLimitMs / 2, 1);
+        stallCheckExecutor = newSingleThreadScheduledExecutor();
+        stallCheckExecutor.scheduleWithFixedDelay(this::closeStalledClients,
+                stallCheckMs, stallCheckMs, MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void teardown() throws InterruptedException {
+        timeoutWheel.close();
+        teardownExecutor.shutdown();
+        expirationExecutor.shutdown();
+        if (!teardownExecutor.awaitTermination(teardownShutdownTimeoutSec,
+                SECONDS)
+                || !expirationExecutor.awaitTermination(
+                        teardownShutdownTimeoutSec, SECONDS)) {
+            log.warn("Session teardown not finished in {} seconds",
+                    teardownShutdownTimeoutSec);
+        }
+
+        // After the teardowns, since they notify the clients
+        stallCheckExecutor.shutdownNow();
+        sendExecutor.shutdown();
+        if (!sendExecutor.awaitTermination(teardownShutdownTimeoutSec,
+                SECONDS)) {
+            sendExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -92,6 +238,15 @@ public class SessionService extends TextWebSocketHandler {
         } else if (payload.equalsIgnoreCase(wsProtocolGetRecordings)) {
             log.trace("{} received", payload);
             sendAllRecordingsToAllClients();
+        } else if (jsonService.isSubscribeMessage(payload)) {
+            log.trace("Subscription received: {}", payload);
+            // Batched frames (JSON arrays) are only sent if requested
+            Subscription subscription = jsonService.getSubscription(payload);
+            ClientOutboundQueue client = activeSessions.get(sessionId);
+            if (client != null) {
+                client.setBatching(subscription.isBatch());
+            }
+            sendChanges(session, subscription);
         } else {
             log.warn("Non recognized message {}", payload);
         }
@@ -104,7 +259,11 @@ public class SessionService extends TextWebSocketHandler {
         String sessionId = session.getId();
         log.debug("WebSocket connection {} established", sessionId);
 
-        activeSessions.put(sessionId, session);
+        Limits limits = new Limits(wsClientQueueSize, wsClientBufferSizeLimit,
+                wsClientBatchSize, wsClientSendTimeLimitMs,
+                wsClientOverflowPolicy);
+        activeSessions.put(sessionId, new ClientOutboundQueue(session, limits,
+                sendExecutor, this::getSnapshot));
     }
 
     @Override
@@ -117,44 +276,96 @@ public class SessionService extends TextWebSocketHandler {
         activeSessions.remove(sessionId);
     }
 
-    public void sendTextMessage(WebSocketSession session, String message)
-            throws IOException {
-        TextMessage textMessage = new TextMessage(message);
-        log.trace("Sending {} to session {}", message, session.getId());
-        session.sendMessage(textMessage);
+    public void sendTextMessage(WebSocketSession session, String message) {
+        ClientOutboundQueue client = activeSessions.get(session.getId());
+        if (client != null) {
+            offer(client, message);
+        }
     }
 
-    public void sendAllSessionsInfoToAllClients() throws IOException {
-        for (WebSocketSession session : activeSessions.values()) {
-            for (SessionInfo sessionInfo : sessionRegistry.values()) {
-                sendTextMessage(session,
-                        jsonService.newSessionJson(sessionInfo).toString());
-            }
+    private void sendChanges(WebSocketSession session,
+            Subscription subscription) throws IOException {
+        // Only the changes since the revision known by the client are sent,
+        // and only to that client
+        loadRecordings();
+        Changes changes = revisionLog.changesSince(subscription.getEpoch(),
+                subscription.getRevision());
+        sendTextMessage(session,
+                jsonService.changesJson(changes, revisionLog.getEpoch()));
+    }
+
+    private List<String> getSnapshot() {
+        // Used to resynchronize clients after an overflow of its queue
+        try {
+            loadRecordings();
+        } catch (Exception e) {
+            log.warn("Exception loading recordings for snapshot: {}",
+                    e.getMessage());
         }
+        return singletonList(jsonService.changesJson(revisionLog.snapshot(),
+                revisionLog.getEpoch()));
     }
 
-    public void sendAllRecordingsToAllClients() throws IOException {
-        for (WebSocketSession session : activeSessions.values()) {
-            for (String fileContent : recordingService
-                    .getStoredMetadataContent()) {
-                sendTextMessage(session, fileContent);
+    private void loadRecordings() throws IOException {
+        // Recordings are taken once from the recording index, and then the
+        // revision log is kept up to date when recordings are stored or
+        // deleted
+        if (!recordingsLoaded) {
+            synchronized (this) {
+                if (!recordingsLoaded) {
+                    for (RecordingMetadata recording : recordingService
+                            .getRecordings()) {
+                        revisionLog.putIfAbsent(RECORDINGS, recording.getId(),
+                                recording.getJson());
+                    }
+                    recordingsLoaded = true;
+                }
             }
         }
     }
 
-    public void sendRecordingToAllClients(SessionInfo sessionInfo)
-            throws IOException {
-        for (WebSocketSession session : activeSessions.values()) {
-            sendTextMessage(session,
-                    jsonService.recordedSessionJson(sessionInfo).toString());
+    public void sendAllSessionsInfoToAllClients() {
+        sendToAllClients(getSessionsSnapshot());
+    }
+
+    private List<String> getSessionsSnapshot() {
+        // Each session is serialized once for all the clients
+        List<String> messages = new ArrayList<>(sessionRegistry.size());
+        for (SessionInfo sessionInfo : sessionRegistry.values()) {
+            messages.add(jsonService.newSessionJson(sessionInfo).toString());
         }
+        return messages;
     }
 
-    public void sendNewSessionToAllClients(SessionInfo sessionInfo)
-            throws IOException {
-        for (WebSocketSession session : activeSessions.values()) {
-            sendTextMessage(session,
-                    jsonService.newSessionJson(sessionInfo).toString());
+    public void sendAllRecordingsToAllClients() throws IOException {
+        // Served from the revision log (metadata is not read again)
+        loadRecordings();
+        List<String> recordings = revisionLog.snapshot()
+                .getUpdated(RECORDINGS);
+        List<String> messages = new ArrayList<>(recordings.size());
+        for (String recording : recordings) {
+            messages.add(jsonService.recordedSessionJson(recording));
+        }
+        sendToAllClients(messages);
+    }
+
+    public void sendRecordingToAllClients(SessionInfo sessionInfo) {
+        JSONObject recordedSession = jsonService.registryJson(sessionInfo);
+        long revision = revisionLog.put(RECORDINGS, sessionInfo.getSessionId(),
+                recordedSession.toString());
+        sendToAllClients(jsonService.withRevision(
+                jsonService.recordedSessionJson(sessionInfo), revision)
+                .toString());
+    }
+
+    public void sendNewSessionToAllClients(SessionInfo sessionInfo) {
+        JSONObject newSession = jsonService.sessionInfoToJson(sessionInfo);
+        long revision = revisionLog.put(SESSIONS, sessionInfo.getSessionId(),
+                newSession.toString());
+        if (activeWebSocketSessions()) {
+            sendToAllClients(jsonService.withRevision(
+                    jsonService.newSessionJson(sessionInfo), revision)
+                    .toString());
         }
     }
 
@@ -162,11 +373,69 @@ public class SessionService extends TextWebSocketHandler {
         return !activeSessions.isEmpty();
     }
 
-    public void sendRemoveSessionToAllClients(SessionInfo sessionInfo)
-            throws IOException {
-        for (WebSocketSession session : activeSessions.values()) {
-            sendTextMessage(session,
-                    jsonService.removeSessionJson(sessionInfo).toString());
+    public void sendRemoveSessionToAllClients(SessionInfo sessionInfo) {
+        long revision = revisionLog.remove(SESSIONS,
+                sessionInfo.getSessionId());
+        if (revision < 0) {
+            revision = revisionLog.getRevision();
+        }
+        sendToAllClients(jsonService.withRevision(
+                jsonService.removeSessionJson(sessionInfo), revision)
+                .toString());
+    }
+
+    public void sendRemoveRecordingToAllClients(String sessionId) {
+        long revision = revisionLog.remove(RECORDINGS, sessionId);
+        if (revision < 0) {
+            revision = revisionLog.getRevision();
+        }
+        sendToAllClients(jsonService.withRevision(
+                jsonService.removeRecordingJson(sessionId), revision)
+                .toString());
+    }
+
+    public void sendSessionStatusToAllClients(SessionInfo sessionInfo,
+            String status) {
+        // The status is kept in the session entry while it is listed (final
+        // statuses are sent after its removal)
+        long revision = revisionLog.replace(SESSIONS,
+                sessionInfo.getSessionId(),
+                jsonService.sessionInfoToJson(sessionInfo, status).toString());
+        if (revision < 0) {
+            revision = revisionLog.getRevision();
+        }
+        sendToAllClients(jsonService.withRevision(
+                jsonService.sessionStatusJson(sessionInfo, status), revision)
+                .toString());
+    }
+
+    private void sendToAllClients(String message) {
+        for (ClientOutboundQueue client : activeSessions.values()) {
+            offer(client, message);
+        }
+    }
+
+    private void sendToAllClients(List<String> messages) {
+        // Messages are only queued here (the caller thread is never blocked
+        // by slow clients), and coalesced in frames when sent
+        for (ClientOutboundQueue client : activeSessions.values()) {
+            for (String message : messages) {
+                offer(client, message);
+            }
+        }
+    }
+
+    private void closeStalledClients() {
+        for (ClientOutboundQueue client : activeSessions.values()) {
+            if (client.closeIfStalled()) {
+                wsClientOverflows.incrementAndGet();
+            }
+        }
+    }
+
+    private void offer(ClientOutboundQueue client, String message) {
+        if (!client.offer(message)) {
+            wsClientOverflows.incrementAndGet();
         }
     }
 
@@ -192,50 +461,90 @@ public class SessionService extends TextWebSocketHandler {
 
     public void startSessionTimer(SessionInfo sessionInfo) {
         if (sessionInfo != null) {
-            Runnable deleteSession = () -> deleteSession(sessionInfo, true);
-
-            int timeout = parseInt(hubTimeout);
-            Future<?> timeoutFuture = timeoutExecutor.schedule(deleteSession,
-                    timeout, SECONDS);
-
-            sessionInfo.setTimeoutFuture(timeoutFuture);
+            long timeoutMs = SECONDS.toMillis(parseInt(hubTimeout));
+            timeoutWheel.add(sessionInfo, timeoutMs);
 
             log.trace("Starting timer of {} seconds", hubTimeout);
         }
     }
 
+    public void resetSessionTimer(SessionInfo sessionInfo) {
+        if (sessionInfo != null) {
+            timeoutWheel.touch(sessionInfo);
+        }
+    }
+
     public void shutdownSessionTimer(SessionInfo sessionInfo) {
         if (sessionInfo != null) {
-            Future<?> timeoutFuture = sessionInfo.getTimeoutFuture();
-            if (timeoutFuture != null) {
-                timeoutFuture.cancel(true);
-            }
+            timeoutWheel.remove(sessionInfo);
         }
     }
 
     public void deleteSession(SessionInfo sessionInfo, boolean timeout) {
-        try {
-            shutdownSessionTimer(sessionInfo);
+        detachSession(sessionInfo, timeout);
+        teardownExecutor
+                .execute(() -> teardownSession(sessionInfo, !timeout));
+    }
 
-            if (timeout) {
-                log.info("Deleting session {} due to timeout of {} seconds",
-                        sessionInfo.getSessionId(), hubTimeout);
-            } else {
-                log.info("Deleting session {}", sessionInfo.getSessionId());
-            }
+    private void expireSession(SessionInfo sessionInfo) {
+        // Already running in the expiration executor
+        detachSession(sessionInfo, true);
+        teardownSession(sessionInfo, false);
+    }
+
+    private void detachSession(SessionInfo sessionInfo, boolean timeout) {
+        shutdownSessionTimer(sessionInfo);
+
+        if (timeout) {
+            log.info("Deleting session {} due to timeout of {} seconds",
+                    sessionInfo.getSessionId(), hubTimeout);
+        } else {
+            log.info("Deleting session {}", sessionInfo.getSessionId());
+        }
 
-            stopAllContainerOfSession(sessionInfo);
+        // The session is detached right away (no more commands are proxied
+        // to its hub), and the rest of the teardown (recording and
+        // containers) is done in background
+        if (sessionInfo.getSessionId() != null) {
             removeSession(sessionInfo.getSessionId());
-            if (!sessionInfo.isLiveSession()) {
-                sendRemoveSessionToAllClients(sessionInfo);
+        }
+        if (!sessionInfo.isLiveSession()) {
+            sendSessionStatusToAllClients(sessionInfo, STATUS_STOPPING);
+        }
+    }
+
+    private void teardownSession(SessionInfo sessionInfo,
+            boolean storeRecording) {
+        String status = STATUS_STOPPED;
+        try {
+            if (storeRecording && sessionInfo.getVncContainerName() != null) {
+                recordingService.stopRecording(sessionInfo);
+                recordingService.storeRecording(sessionInfo);
+                recordingService.storeMetadata(sessionInfo);
+
+                sendRecordingToAllClients(sessionInfo);
             }
+        } catch (Exception e) {
+            log.error("Exception storing recording of session {}",
+                    sessionInfo.getSessionId(), e);
+            status = STATUS_FAILED;
+
+        } finally {
+            try {
+                stopAllContainerOfSession(sessionInfo);
+            } catch (Exception e) {
+                log.error("Exception removing containers of session {}",
+                        sessionInfo.getSessionId(), e);
+                status = STATUS_FAILED;
+            }
+        }
 
-        } catch (IOException e) {
-            String errorMessage = "Exception session message for removing session "
-                    + sessionInfo;
-            // Not propagating Exception to improve readability
-            throw new EusException(errorMessage, e);
+        if (!sessionInfo.isLiveSession()) {
+            sendRemoveSessionToAllClients(sessionInfo);
+            sendSessionStatusToAllClients(sessionInfo, status);
         }
+        log.debug("Session {} teardown finished ({})",
+                sessionInfo.getSessionId(), status);
     }
 
     public void stopAllContainerOfSession(SessionInfo sessionInfo) {
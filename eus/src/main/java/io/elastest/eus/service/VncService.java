@@ -18,12 +18,20 @@ package io.elastest.eus.service;
 
 import static io.elastest.eus.docker.DockerContainer.dockerBuilder;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,7 +45,9 @@ import com.github.dockerjava.api.model.PortBinding;
 import com.github.dockerjava.api.model.Ports;
 import com.github.dockerjava.api.model.Ports.Binding;
 
+import io.elastest.eus.EusException;
 import io.elastest.eus.session.SessionInfo;
+import io.micrometer.core.instrument.Timer.Sample;
 
 /**
  * Service implementation for VNC capabilities.
@@ -68,23 +78,62 @@ public class VncService {
     @Value("${novnc.autofocus.html}")
     private String vncAutoFocusHtml;
 
+    @Value("${novnc.start.threads}")
+    private int vncStartThreads;
+
+    @Value("${novnc.start.queue.size}")
+    private int vncStartQueueSize;
+
     private DockerService dockerService;
+    private MetricsService metricsService;
     SessionService sessionService;
 
+    private ExecutorService vncExecutor;
+
     @Autowired
     public VncService(DockerService dockerService,
-            SessionService sessionService) {
+            SessionService sessionService, MetricsService metricsService) {
         this.dockerService = dockerService;
         this.sessionService = sessionService;
+        this.metricsService = metricsService;
+    }
+
+    @PostConstruct
+    private void postConstruct() {
+        // Bounded number of concurrent starts. When the queue is full, the
+        // container is started in the caller thread (i.e. not in parallel
+        // with the hub). After the shutdown, starts fail instead of being
+        // discarded, since the callers wait for them
+        vncExecutor = new ThreadPoolExecutor(vncStartThreads, vncStartThreads,
+                0L, MILLISECONDS, new LinkedBlockingQueue<>(vncStartQueueSize),
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        ((VncStart) task).shutdown();
+                    } else {
+                        task.run();
+                    }
+                });
+    }
+
+    @PreDestroy
+    public void teardown() {
+        for (Runnable task : vncExecutor.shutdownNow()) {
+            ((VncStart) task).shutdown();
+        }
+    }
+
+    public CompletableFuture<Void> startVncContainerAsync(
+            SessionInfo sessionInfo) {
+        VncStart vncStart = new VncStart(sessionInfo);
+        vncExecutor.execute(vncStart);
+        return vncStart.future;
     }
 
     public void startVncContainer(SessionInfo sessionInfo)
             throws IOException, InterruptedException {
-        log.debug("Starting VNC container in session {}",
-                sessionInfo.getSessionId());
-
         String vncContainerName = dockerService.generateContainerName(
                 eusContainerPrefix + noVncContainerSufix);
+        log.debug("Starting VNC container {}", vncContainerName);
 
         // Port binding
         int noVncBindPort = dockerService.findRandomOpenPort();
@@ -93,23 +142,36 @@ public class VncService {
         List<PortBinding> portBindings = asList(
                 new PortBinding(bindNoVncPort, exposedNoVncPort));
 
+        // Container name is stored before starting it, so that it can be
+        // removed in case of error
+        sessionInfo.setVncContainerName(vncContainerName);
+        Sample startSample = metricsService.startTimer();
         dockerService.startAndWaitContainer(
                 dockerBuilder(noVncImageId, vncContainerName)
                         .portBindings(portBindings).build());
+        metricsService.stopSessionPhaseTimer(startSample, "novnc.start");
 
+        String vncContainerIp = dockerService.getDockerServerIp();
+        Sample reachabilitySample = metricsService.startTimer();
+        dockerService.waitForHostIsReachable("http://" + vncContainerIp + ":"
+                + noVncBindPort + "/" + vncAutoFocusHtml);
+        metricsService.stopSessionPhaseTimer(reachabilitySample,
+                "novnc.reachability");
+
+        sessionInfo.setNoVncBindPort(noVncBindPort);
+    }
+
+    public void updateVncUrl(SessionInfo sessionInfo) throws IOException {
         String vncContainerIp = dockerService.getDockerServerIp();
         String hubContainerIp = dockerService.getDockerServerIp();
 
-        String vncUrl = "http://" + vncContainerIp + ":" + noVncBindPort + "/"
-                + vncAutoFocusHtml + "?host=" + hubContainerIp + "&port="
+        String vncUrl = "http://" + vncContainerIp + ":"
+                + sessionInfo.getNoVncBindPort() + "/" + vncAutoFocusHtml
+                + "?host=" + hubContainerIp + "&port="
                 + sessionInfo.getHubVncBindPort()
                 + "&resize=scale&autoconnect=true&password=" + hubVncPassword;
 
-        dockerService.waitForHostIsReachable(vncUrl);
-
-        sessionInfo.setVncContainerName(vncContainerName);
         sessionInfo.setVncUrl(vncUrl);
-        sessionInfo.setNoVncBindPort(noVncBindPort);
     }
 
     public ResponseEntity<String> getVnc(String sessionId) {
@@ -127,4 +189,28 @@ public class VncService {
         return responseEntity;
     }
 
+    private class VncStart implements Runnable {
+        final SessionInfo sessionInfo;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        VncStart(SessionInfo sessionInfo) {
+            this.sessionInfo = sessionInfo;
+        }
+
+        @Override
+        public void run() {
+            try {
+                startVncContainer(sessionInfo);
+                future.complete(null);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void shutdown() {
+            future.completeExceptionally(new EusException(
+                    "noVNC container not started (service shut down)"));
+        }
+    }
+
 }
@@ -16,37 +16,61 @@
  */
 package io.elastest.eus.service;
 
-import static io.elastest.eus.docker.DockerContainer.dockerBuilder;
+import static java.lang.String.CASE_INSENSITIVE_ORDER;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static java.util.Collections.list;
+import static org.springframework.http.HttpHeaders.CONNECTION;
+import static org.springframework.http.HttpHeaders.CONTENT_LENGTH;
+import static org.springframework.http.HttpHeaders.HOST;
+import static org.springframework.http.HttpHeaders.PROXY_AUTHENTICATE;
+import static org.springframework.http.HttpHeaders.PROXY_AUTHORIZATION;
+import static org.springframework.http.HttpHeaders.TE;
+import static org.springframework.http.HttpHeaders.TRAILER;
+import static org.springframework.http.HttpHeaders.TRANSFER_ENCODING;
+import static org.springframework.http.HttpHeaders.UPGRADE;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.Enumeration;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-
-import com.github.dockerjava.api.model.ExposedPort;
-import com.github.dockerjava.api.model.PortBinding;
-import com.github.dockerjava.api.model.Ports;
-import com.github.dockerjava.api.model.Ports.Binding;
+import org.springframework.util.StreamUtils;
 
+import io.elastest.eus.EusException;
+import io.elastest.eus.browser.BrowserCapabilities;
+import io.elastest.eus.docker.HubContainer;
 import io.elastest.eus.session.SessionInfo;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer.Sample;
 
 /**
  * Service implementation for W3C WebDriver/JSON Wire Protocol.
@@ -59,21 +83,21 @@ public class WebDriverService {
 
     private final Logger log = LoggerFactory.getLogger(WebDriverService.class);
 
+    // Headers of a single connection (RFC 7230), plus Host and
+    // Content-Length, which are set for each request by the HTTP client or
+    // the servlet container
+    private static final Set<String> NOT_PROXIED_HEADERS = new TreeSet<>(
+            CASE_INSENSITIVE_ORDER);
+    static {
+        NOT_PROXIED_HEADERS.addAll(asList(CONNECTION, "Keep-Alive",
+                PROXY_AUTHENTICATE, PROXY_AUTHORIZATION, "Proxy-Connection",
+                TE, TRAILER, TRANSFER_ENCODING, UPGRADE, HOST,
+                CONTENT_LENGTH));
+    }
+
     @Value("${server.servlet.context-path}")
     private String contextPath;
 
-    @Value("${eus.container.prefix}")
-    private String eusContainerPrefix;
-
-    @Value("${hub.exposedport}")
-    private int hubExposedPort;
-
-    @Value("${hub.vnc.exposedport}")
-    private int hubVncExposedPort;
-
-    @Value("${hub.container.sufix}")
-    private String hubContainerSufix;
-
     // Defined as String instead of integer for testing purposes (inject with
     // @TestPropertySource)
     @Value("${hub.timeout}")
@@ -82,24 +106,32 @@ public class WebDriverService {
     @Value("${ws.dateformat}")
     private String wsDateFormat;
 
-    private DockerService dockerService;
+    @Value("${hub.proxy.streaming}")
+    private boolean hubProxyStreaming;
+
+    private HubPoolService hubPoolService;
+    private HubClientService hubClientService;
     private PropertiesService propertiesService;
     private JsonService jsonService;
     private SessionService sessionService;
     private VncService vncService;
     private RecordingService recordingService;
+    private MetricsService metricsService;
 
     @Autowired
-    public WebDriverService(DockerService dockerService,
+    public WebDriverService(HubPoolService hubPoolService,
+            HubClientService hubClientService,
             PropertiesService propertiesService, JsonService jsonService,
             SessionService sessionService, VncService vncService,
-            RecordingService recordingService) {
-        this.dockerService = dockerService;
+            RecordingService recordingService, MetricsService metricsService) {
+        this.hubPoolService = hubPoolService;
+        this.hubClientService = hubClientService;
         this.propertiesService = propertiesService;
         this.jsonService = jsonService;
         this.sessionService = sessionService;
         this.vncService = vncService;
         this.recordingService = recordingService;
+        this.metricsService = metricsService;
     }
 
     public ResponseEntity<String> getStatus() {
@@ -107,81 +139,222 @@ public class WebDriverService {
         return new ResponseEntity<>(statusBody, OK);
     }
 
-    public ResponseEntity<String> session(HttpEntity<String> httpEntity,
-            HttpServletRequest request)
+    public ResponseEntity<String> session(HttpServletRequest request,
+            HttpServletResponse response)
             throws IOException, InterruptedException {
+        Sample commandSample = metricsService.startTimer();
 
-        StringBuffer requestUrl = request.getRequestURL();
-        String requestContext = requestUrl.substring(
-                requestUrl.lastIndexOf(contextPath) + contextPath.length());
+        // Request URI (path only) avoids building the full request URL
+        String requestUri = request.getRequestURI();
+        String requestContext = requestUri.substring(
+                requestUri.lastIndexOf(contextPath) + contextPath.length());
         HttpMethod method = HttpMethod.resolve(request.getMethod());
-        String requestBody = jsonService.sanitizeMessage(httpEntity.getBody());
 
+        boolean isPostSession = jsonService.isPostSessionRequest(method,
+                requestContext);
+        boolean isDeleteSession = jsonService.isDeleteSessionRequest(method,
+                requestContext);
+
+        // Only create and destroy session are intercepted, the rest of
+        // requests can be streamed to/from the hub
+        if (hubProxyStreaming && !isPostSession && !isDeleteSession) {
+            streamSession(requestContext, method, request, response,
+                    commandSample);
+
+            // Null response entity since the response is already written
+            return null;
+        }
+
+        HttpEntity<String> httpEntity = getHttpEntity(request);
         log.debug(">> Request: {} {} -- body: {}", method, requestContext,
-                requestBody);
+                httpEntity.getBody());
 
         SessionInfo sessionInfo;
         boolean isLive = false;
+        String timeout = hubTimeout;
         Optional<HttpEntity<String>> optionalHttpEntity = Optional.empty();
+        long startupNanos = 0;
 
         // Intercept create session
-        if (jsonService.isPostSessionRequest(method, requestContext)) {
-            isLive = jsonService.isLive(requestBody);
+        if (isPostSession) {
+            String requestBody = jsonService
+                    .sanitizeMessage(httpEntity.getBody());
+            BrowserCapabilities capabilities = jsonService
+                    .parseCapabilities(requestBody);
+            isLive = capabilities.isLive();
 
             // If live, no timeout
             if (isLive) {
-                hubTimeout = "0";
+                timeout = "0";
             }
-            sessionInfo = starBrowser(requestBody, hubTimeout);
-            optionalHttpEntity = optionalHttpEntity(requestBody);
+            long startupStart = System.nanoTime();
+            sessionInfo = starBrowser(capabilities, timeout);
+            startupNanos = System.nanoTime() - startupStart;
+            optionalHttpEntity = optionalHttpEntity(capabilities);
 
         } else {
-            Optional<String> sessionIdFromPath = jsonService
-                    .getSessionIdFromPath(requestContext);
-            if (sessionIdFromPath.isPresent()) {
-                String sessionId = sessionIdFromPath.get();
-                Optional<SessionInfo> optionalSession = sessionService
-                        .getSession(sessionId);
-                if (optionalSession.isPresent()) {
-                    sessionInfo = optionalSession.get();
-                } else {
-                    return notFound();
-                }
-                isLive = sessionInfo.isLiveSession();
-
-            } else {
+            Optional<SessionInfo> optionalSession = getSessionFromPath(
+                    requestContext);
+            if (!optionalSession.isPresent()) {
+                stopNotFoundTimer(commandSample, requestContext, method,
+                        length(httpEntity.getBody()));
                 return notFound();
             }
+            sessionInfo = optionalSession.get();
+            isLive = sessionInfo.isLiveSession();
         }
 
         // Only using timer for non-live sessions
         if (!isLive) {
-            sessionService.shutdownSessionTimer(sessionInfo);
-            sessionService.startSessionTimer(sessionInfo);
+            if (isPostSession) {
+                sessionService.startSessionTimer(sessionInfo);
+            } else {
+                sessionService.resetSessionTimer(sessionInfo);
+            }
         }
 
         // Proxy request to Selenium Hub
+        Tags commandTags = commandTags(requestContext, method, sessionInfo);
+        Sample hubSample = metricsService.startTimer();
         String responseBody = exchange(httpEntity, requestContext, method,
                 sessionInfo, optionalHttpEntity);
+        long hubNanos = metricsService.stopWebDriverHubTimer(hubSample,
+                commandTags);
 
-        // Handle response
-        HttpStatus responseStatus = sessionResponse(requestContext, method,
-                sessionInfo, isLive, responseBody);
+        // Handle response. The startup of the browser containers is not
+        // overhead of the proxy (it is measured in the session creation)
+        HttpStatus responseStatus = sessionResponse(isPostSession,
+                isDeleteSession, sessionInfo, isLive, responseBody);
+        metricsService.stopWebDriverCommandTimer(commandSample, commandTags,
+                hubNanos + startupNanos, length(httpEntity.getBody()),
+                length(responseBody));
 
         return new ResponseEntity<>(responseBody, responseStatus);
     }
 
-    private HttpStatus sessionResponse(String requestContext, HttpMethod method,
-            SessionInfo sessionInfo, boolean isLive, String responseBody) {
+    private void streamSession(String requestContext, HttpMethod method,
+            HttpServletRequest request, HttpServletResponse response,
+            Sample commandSample) throws IOException {
+        log.debug(">> Request: {} {} -- body streamed", method,
+                requestContext);
+
+        Optional<SessionInfo> optionalSession = getSessionFromPath(
+                requestContext);
+        if (!optionalSession.isPresent()) {
+            response.setStatus(NOT_FOUND.value());
+            log.debug("<< Response: {} ", NOT_FOUND);
+            stopNotFoundTimer(commandSample, requestContext, method, 0);
+            return;
+        }
+        SessionInfo sessionInfo = optionalSession.get();
+
+        // Only using timer for non-live sessions
+        if (!sessionInfo.isLiveSession()) {
+            sessionService.resetSessionTimer(sessionInfo);
+        }
+
+        // Proxy request to Selenium Hub, copying the status code and the body
+        // of the hub response (also in case of error) to the client
+        URI hubUri = URI.create(sessionInfo.getHubUrl() + requestContext);
+        ClientHttpRequest hubRequest = hubClientService.getRequestFactory()
+                .createRequest(hubUri, method);
+        Enumeration<String> headerNames = request.getHeaderNames();
+        while (headerNames.hasMoreElements()) {
+            String headerName = headerNames.nextElement();
+            if (!NOT_PROXIED_HEADERS.contains(headerName)) {
+                hubRequest.getHeaders().put(headerName,
+                        list(request.getHeaders(headerName)));
+            }
+        }
+        int requestBytes = StreamUtils.copy(request.getInputStream(),
+                hubRequest.getBody());
+
+        // Hub time is measured until the response headers are received,
+        // since the body is copied to the client while it is read
+        Tags commandTags = commandTags(requestContext, method, sessionInfo);
+        Sample hubSample = metricsService.startTimer();
+        try (ClientHttpResponse hubResponse = hubRequest.execute()) {
+            long hubNanos = metricsService.stopWebDriverHubTimer(hubSample,
+                    commandTags);
+            HttpHeaders hubHeaders = hubResponse.getHeaders();
+            response.setStatus(hubResponse.getRawStatusCode());
+            hubHeaders.forEach((headerName, values) -> {
+                if (!NOT_PROXIED_HEADERS.contains(headerName)) {
+                    values.forEach(
+                            value -> response.addHeader(headerName, value));
+                }
+            });
+            if (hubHeaders.getContentLength() >= 0) {
+                response.setContentLengthLong(hubHeaders.getContentLength());
+            }
+            int streamedBytes = StreamUtils.copy(hubResponse.getBody(),
+                    response.getOutputStream());
+
+            log.debug("<< Response: {} -- {} bytes streamed",
+                    hubResponse.getRawStatusCode(), streamedBytes);
+            metricsService.stopWebDriverCommandTimer(commandSample,
+                    commandTags, hubNanos, requestBytes, streamedBytes);
+        }
+    }
+
+    private Tags commandTags(String requestContext, HttpMethod method,
+            SessionInfo sessionInfo) {
+        return metricsService.webDriverCommandTags(
+                jsonService.getEndpointTemplate(requestContext), method.name(),
+                sessionInfo.getBrowser(), sessionInfo.getVersion());
+    }
+
+    private void stopNotFoundTimer(Sample commandSample,
+            String requestContext, HttpMethod method, long requestBytes) {
+        // Unknown session, and so unknown browser
+        Tags commandTags = metricsService.webDriverCommandTags(
+                jsonService.getEndpointTemplate(requestContext), method.name(),
+                null, null);
+        metricsService.stopWebDriverCommandTimer(commandSample, commandTags,
+                0, requestBytes, 0);
+    }
+
+    private long length(String body) {
+        // Size in bytes (as sent), not in chars
+        return body != null ? body.getBytes(UTF_8).length : 0;
+    }
+
+    private HttpEntity<String> getHttpEntity(HttpServletRequest request)
+            throws IOException {
+        ServletServerHttpRequest inputMessage = new ServletServerHttpRequest(
+                request);
+        HttpHeaders headers = inputMessage.getHeaders();
+        MediaType contentType = headers.getContentType();
+        Charset charset = contentType != null
+                && contentType.getCharset() != null ? contentType.getCharset()
+                        : ISO_8859_1;
+        String body = StreamUtils.copyToString(inputMessage.getBody(),
+                charset);
+
+        return new HttpEntity<>(body.isEmpty() ? null : body, headers);
+    }
+
+    private Optional<SessionInfo> getSessionFromPath(String requestContext) {
+        Optional<String> sessionIdFromPath = jsonService
+                .getSessionIdFromPath(requestContext);
+        if (sessionIdFromPath.isPresent()) {
+            return sessionService.getSession(sessionIdFromPath.get());
+        }
+        return Optional.empty();
+    }
+
+    private HttpStatus sessionResponse(boolean isPostSession,
+            boolean isDeleteSession, SessionInfo sessionInfo, boolean isLive,
+            String responseBody) {
         HttpStatus responseStatus = OK;
         try {
             // Intercept again create session
-            if (jsonService.isPostSessionRequest(method, requestContext)) {
+            if (isPostSession) {
                 postSessionRequest(sessionInfo, isLive, responseBody);
             }
 
             // Intercept destroy session
-            if (jsonService.isDeleteSessionRequest(method, requestContext)) {
+            if (isDeleteSession) {
                 log.trace("Intercepted DELETE session");
                 stopBrowser(sessionInfo);
             }
@@ -201,13 +374,14 @@ public class WebDriverService {
             String requestContext, HttpMethod method, SessionInfo sessionInfo,
             Optional<HttpEntity<String>> optionalHttpEntity) {
         String hubUrl = sessionInfo.getHubUrl();
-        RestTemplate restTemplate = new RestTemplate();
-        ResponseEntity<String> exchange = restTemplate
+        ResponseEntity<String> exchange = hubClientService.getRestTemplate()
                 .exchange(hubUrl + requestContext, method,
                         optionalHttpEntity.isPresent()
                                 ? optionalHttpEntity.get()
                                 : httpEntity,
                         String.class);
+        log.trace("Connections to hub {}: {}", hubUrl,
+                hubClientService.getHubStats(hubUrl));
         return exchange.getBody();
     }
 
@@ -218,20 +392,19 @@ public class WebDriverService {
         sessionInfo.setLiveSession(isLive);
 
         sessionService.putSession(sessionId, sessionInfo);
-        vncService.startVncContainer(sessionInfo);
         recordingService.startRecording(sessionInfo);
 
-        if (sessionService.activeWebSocketSessions() && !isLive) {
+        if (!isLive) {
             sessionService.sendNewSessionToAllClients(sessionInfo);
         }
     }
 
     private Optional<HttpEntity<String>> optionalHttpEntity(
-            String requestBody) {
+            BrowserCapabilities capabilities) {
         // Workaround due to bug of selenium-server 3.4.0
         // More info on: https://github.com/SeleniumHQ/selenium/issues/3808
-        String browserName = jsonService.getBrowser(requestBody);
-        String version = jsonService.getVersion(requestBody);
+        String browserName = capabilities.getBrowserName();
+        String version = capabilities.getVersion();
 
         if (browserName.equalsIgnoreCase("firefox") && !version.equals("")) {
             log.warn(
@@ -252,69 +425,79 @@ public class WebDriverService {
         return responseEntity;
     }
 
-    private SessionInfo starBrowser(String jsonCapabilities, String timeout)
-            throws IOException, InterruptedException {
-        String browserName = jsonService.getBrowser(jsonCapabilities);
-        String version = jsonService.getVersion(jsonCapabilities);
-        String platform = jsonService.getPlatform(jsonCapabilities);
+    private SessionInfo starBrowser(BrowserCapabilities capabilities,
+            String timeout) throws IOException, InterruptedException {
+        String browserName = capabilities.getBrowserName();
+        String version = capabilities.getVersion();
+        String platform = capabilities.getPlatform();
+        if (browserName == null) {
+            throw new EusException("Browser name not found in capabilities "
+                    + capabilities);
+        }
 
         String propertiesKey = propertiesService
                 .getKeyFromCapabilities(browserName, version, platform);
-        String imageId = propertiesService.getDockerImageFromKey(propertiesKey);
-        String hubContainerName = dockerService
-                .generateContainerName(eusContainerPrefix + hubContainerSufix);
-        List<String> env = asList(
-                "SE_OPTS=-timeout " + timeout + " -browserTimeout " + timeout);
-        log.debug(
-                "Starting browser with container name {} and environment variables {}",
-                hubContainerName, env);
-
-        // Port binding
-        int hubBindPort = dockerService.findRandomOpenPort();
-        Binding bindPort = Ports.Binding.bindPort(hubBindPort);
-        ExposedPort exposedPort = ExposedPort.tcp(hubExposedPort);
-
-        int hubVncBindPort = dockerService.findRandomOpenPort();
-        Binding bindHubVncPort = Ports.Binding.bindPort(hubVncBindPort);
-        ExposedPort exposedHubVncPort = ExposedPort.tcp(hubVncExposedPort);
-
-        List<PortBinding> portBindings = asList(
-                new PortBinding(bindPort, exposedPort),
-                new PortBinding(bindHubVncPort, exposedHubVncPort));
-
-        dockerService
-                .startAndWaitContainer(dockerBuilder(imageId, hubContainerName)
-                        .portBindings(portBindings).envs(env).build());
-
-        String hubUrl = "http://" + dockerService.getDockerServerIp() + ":"
-                + hubBindPort + "/wd/hub";
-        dockerService.waitForHostIsReachable(hubUrl);
-
-        log.trace("Container: {} -- Hub URL: {}", hubContainerName, hubUrl);
+        String browserVersion = propertiesKey != null
+                ? propertiesService.getVersionFromKey(propertiesKey)
+                : version;
 
-        SessionInfo sessionInfo = new SessionInfo();
-        sessionInfo.setHubUrl(hubUrl);
-        sessionInfo.setHubContainerName(hubContainerName);
-        sessionInfo.setBrowser(browserName);
-        sessionInfo
-                .setVersion(propertiesService.getVersionFromKey(propertiesKey));
-        SimpleDateFormat dateFormat = new SimpleDateFormat(wsDateFormat);
-        sessionInfo.setCreationTime(dateFormat.format(new Date()));
-        sessionInfo.setHubBindPort(hubBindPort);
-        sessionInfo.setHubVncBindPort(hubVncBindPort);
+        Sample sample = metricsService.startTimer();
+        boolean success = false;
+        try {
+            SessionInfo sessionInfo = startContainers(propertiesKey, timeout);
+            sessionInfo.setBrowser(browserName);
+            sessionInfo.setVersion(browserVersion);
+            Date creationDate = new Date();
+            SimpleDateFormat dateFormat = new SimpleDateFormat(wsDateFormat);
+            sessionInfo.setCreationTime(dateFormat.format(creationDate));
+            sessionInfo.setCreationTimestamp(creationDate.getTime());
+            success = true;
 
-        return sessionInfo;
+            return sessionInfo;
+
+        } finally {
+            metricsService.stopSessionCreationTimer(sample, browserName,
+                    browserVersion, success);
+        }
     }
 
-    private void stopBrowser(SessionInfo sessionInfo)
+    private SessionInfo startContainers(String propertiesKey, String timeout)
             throws IOException, InterruptedException {
-        if (sessionInfo.getVncContainerName() != null) {
-            recordingService.stopRecording(sessionInfo);
-            recordingService.storeRecording(sessionInfo);
-            recordingService.storeMetadata(sessionInfo);
+        // noVNC container is started in parallel with the hub, since it does
+        // not depend on it (only the VNC URL does)
+        SessionInfo sessionInfo = new SessionInfo();
+        CompletableFuture<Void> vncFuture = vncService
+                .startVncContainerAsync(sessionInfo);
 
-            sessionService.sendRecordingToAllClients(sessionInfo);
+        HubContainer hub;
+        try {
+            hub = hubPoolService.getHub(propertiesKey, timeout);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            vncFuture.whenComplete((result, throwable) -> sessionService
+                    .stopAllContainerOfSession(sessionInfo));
+            throw e;
         }
+
+        sessionInfo.setHubUrl(hub.getHubUrl());
+        sessionInfo.setHubContainerName(hub.getContainerName());
+        sessionInfo.setHubBindPort(hub.getHubBindPort());
+        sessionInfo.setHubVncBindPort(hub.getHubVncBindPort());
+
+        try {
+            vncFuture.get();
+        } catch (ExecutionException e) {
+            sessionService.stopAllContainerOfSession(sessionInfo);
+            String errorMessage = "Exception starting noVNC container";
+            // Not propagating ExecutionException to improve readability
+            throw new EusException(errorMessage, e.getCause());
+        }
+        vncService.updateVncUrl(sessionInfo);
+
+        return sessionInfo;
+    }
+
+    private void stopBrowser(SessionInfo sessionInfo) {
+        // Recording and containers are finalized in background
         sessionService.deleteSession(sessionInfo, false);
     }
 
@@ -0,0 +1,416 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.session;
+
+import static io.elastest.eus.session.ClientOutboundQueue.OverflowPolicy.RESYNC;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.springframework.web.socket.CloseStatus.SESSION_NOT_RELIABLE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+/**
+ * Bounded outbound queue of a WebSocket client. Messages are already
+ * serialized when queued, and they are sent in background by a single drain
+ * task per client at a time. By default, each message is sent in its own
+ * frame (a JSON object). Clients which opt in to batching (with the batch flag
+ * of the subscribe message) receive instead the messages pending when the
+ * drain runs coalesced in frames which are always a JSON array (even for a
+ * single message), so a slow client receives fewer and bigger frames.
+ *
+ * The session is wrapped in a {@link ConcurrentWebSocketSessionDecorator}, so
+ * it is also safe for direct concurrent sends. When the queue exceeds its
+ * limits (number of messages or bytes), the overflow policy is applied: drop
+ * the oldest messages, disconnect the client, or discard the queue and resync
+ * the client with a snapshot of the current state. Dropped messages are never
+ * silently lost: after dropping the oldest messages, the client also receives
+ * a snapshot before the messages still queued (which are newer than the
+ * dropped ones, so that applying them after the snapshot leaves the client in
+ * the current state). When the send in progress takes longer than the send
+ * time limit, the client is disconnected whatever the policy, and the send is
+ * interrupted, so that a stalled client does not keep a send thread.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class ClientOutboundQueue {
+
+    private final Logger log = LoggerFactory
+            .getLogger(ClientOutboundQueue.class);
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, DISCONNECT, RESYNC
+    }
+
+    private WebSocketSession session;
+    private Limits limits;
+    private Executor sendExecutor;
+    private Supplier<List<String>> snapshotSupplier;
+
+    private Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private AtomicInteger queuedMessages = new AtomicInteger();
+    private AtomicLong queuedBytes = new AtomicLong();
+    private AtomicBoolean draining = new AtomicBoolean();
+    private AtomicBoolean resyncPending = new AtomicBoolean();
+    private AtomicBoolean closed = new AtomicBoolean();
+    private AtomicLong overflows = new AtomicLong();
+    private volatile long sendStartNanos;
+    private volatile boolean batching;
+    private final Object sendLock = new Object();
+    private Thread sendThread;
+    private boolean sendAborted;
+
+    /**
+     * The snapshot supplier must provide the whole current state (i.e. a
+     * snapshot which replaces the state of the client), since it stands for
+     * all the discarded messages, including removals.
+     */
+    public ClientOutboundQueue(WebSocketSession session, Limits limits,
+            Executor sendExecutor, Supplier<List<String>> snapshotSupplier) {
+        this.session = new ConcurrentWebSocketSessionDecorator(session,
+                (int) limits.sendTimeLimitMs, limits.bufferSizeLimit);
+        this.limits = limits;
+        this.sendExecutor = sendExecutor;
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    /**
+     * Queue a message for this client. Returns false if the overflow policy
+     * has been applied. Producers are serialized, so that the limits are
+     * checked and the message is queued atomically (the drain task only
+     * removes messages).
+     */
+    public synchronized boolean offer(String message) {
+        if (closed.get() || closeIfStalled()) {
+            return false;
+        }
+        int bytes = byteLength(message);
+        boolean overflow = isFull(bytes);
+        if (overflow) {
+            overflows.incrementAndGet();
+            overflow(message, bytes);
+        } else {
+            enqueue(message, bytes);
+        }
+        scheduleDrain();
+        return !overflow;
+    }
+
+    /**
+     * Close the client if the send in progress takes longer than the send
+     * time limit. Checked when messages are queued, and also periodically,
+     * since the send threads of other clients can be waiting for it.
+     */
+    public synchronized boolean closeIfStalled() {
+        if (closed.get() || !isStalled()) {
+            return false;
+        }
+        // Neither dropping nor resyncing would release the send thread
+        overflows.incrementAndGet();
+        close();
+        return true;
+    }
+
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public int size() {
+        return queuedMessages.get();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    private void overflow(String message, int bytes) {
+        switch (limits.overflowPolicy) {
+        case DISCONNECT:
+            close();
+            break;
+
+        case RESYNC:
+            // Queued messages are discarded, and the state is sent as a
+            // snapshot when the client is able to receive again
+            if (resyncPending.compareAndSet(false, true)) {
+                log.warn("Outbound queue of WebSocket session {} overflowed, "
+                        + "resync pending", session.getId());
+            }
+            clear();
+            break;
+
+        case DROP_OLDEST:
+        default:
+            if (bytes > limits.bufferSizeLimit) {
+                // It would never fit, so the queue is kept as is
+                log.warn("Message of {} bytes for WebSocket session {} "
+                        + "exceeds the buffer size limit, rejected",
+                        bytes, session.getId());
+            } else {
+                while (isFull(bytes) && poll() != null) {
+                    // Dropping oldest messages until the new one fits
+                }
+                enqueue(message, bytes);
+            }
+            // The client is resynced with a snapshot, so that the state of
+            // the dropped messages is not lost
+            if (resyncPending.compareAndSet(false, true)) {
+                log.debug("Outbound queue of WebSocket session {} full, "
+                        + "oldest messages dropped, resync pending",
+                        session.getId());
+            }
+            break;
+        }
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            log.warn("WebSocket session {} not reliable (slow consumer), "
+                    + "closing it", session.getId());
+            clear();
+            abortSend();
+            try {
+                session.close(SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Exception closing session {}: {}",
+                        session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void abortSend() {
+        // The send in progress (if any) is interrupted, since closing the
+        // session does not always abort a blocked write
+        synchronized (sendLock) {
+            if (sendThread != null) {
+                sendAborted = true;
+                sendThread.interrupt();
+            }
+        }
+    }
+
+    private boolean isStalled() {
+        long started = sendStartNanos;
+        return started != 0 && System.nanoTime() - started > MILLISECONDS
+                .toNanos(limits.sendTimeLimitMs);
+    }
+
+    private boolean isFull(int messageBytes) {
+        return queuedMessages.get() >= limits.queueSize
+                || queuedBytes.get() + messageBytes > limits.bufferSizeLimit;
+    }
+
+    private void enqueue(String message, int bytes) {
+        if (limits.overflowPolicy == RESYNC && resyncPending.get()) {
+            // Already included in the snapshot to be sent
+            return;
+        }
+        queue.add(message);
+        queuedMessages.incrementAndGet();
+        queuedBytes.addAndGet(bytes);
+    }
+
+    private String poll() {
+        String message = queue.poll();
+        if (message != null) {
+            queuedMessages.decrementAndGet();
+            queuedBytes.addAndGet(-byteLength(message));
+        }
+        return message;
+    }
+
+    private void clear() {
+        while (poll() != null) {
+            // Discarding queued messages
+        }
+    }
+
+    private void scheduleDrain() {
+        if (session.isOpen() && !closed.get()
+                && draining.compareAndSet(false, true)) {
+            try {
+                sendExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Executor shut down: messages are kept in the queue
+                draining.set(false);
+                log.debug("Messages for session {} not sent (executor shut "
+                        + "down)", session.getId());
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            List<String> batch = new ArrayList<>();
+            while (session.isOpen() && !closed.get()) {
+                if (resyncPending.compareAndSet(true, false)) {
+                    if (limits.overflowPolicy == RESYNC) {
+                        clear();
+                    }
+                    send(snapshotSupplier.get());
+                }
+
+                int maxBatchSize = batching ? limits.maxBatchSize : 1;
+                String message;
+                while (batch.size() < maxBatchSize
+                        && (message = poll()) != null) {
+                    batch.add(message);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                send(batch);
+                batch.clear();
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // Messages queued after the last poll but before releasing the flag
+        if (!queue.isEmpty() || resyncPending.get()) {
+            scheduleDrain();
+        }
+    }
+
+    private void send(List<String> messages) {
+        if (batching) {
+            send(toFrame(messages));
+        } else {
+            messages.forEach(this::send);
+        }
+    }
+
+    private void send(String frame) {
+        if (frame.isEmpty() || closed.get()) {
+            return;
+        }
+        log.trace("Sending {} to session {}", frame, session.getId());
+        synchronized (sendLock) {
+            sendThread = Thread.currentThread();
+            sendStartNanos = System.nanoTime();
+        }
+        try {
+            session.sendMessage(new TextMessage(frame));
+        } catch (Exception e) {
+            log.warn("Exception sending message to session {}: {}",
+                    session.getId(), e.getMessage());
+        } finally {
+            synchronized (sendLock) {
+                sendThread = null;
+                sendStartNanos = 0;
+                if (sendAborted) {
+                    // The interruption was only for this send (the thread
+                    // belongs to the pool)
+                    Thread.interrupted();
+                    sendAborted = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Length of the message encoded in UTF-8 (as sent in text frames),
+     * computed without encoding it.
+     */
+    public static int byteLength(String message) {
+        int bytes = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                // Supplementary characters (surrogate pairs)
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    public static String toFrame(List<String> messages) {
+        if (messages.isEmpty()) {
+            return "";
+        }
+        int length = messages.size() + 1;
+        for (String message : messages) {
+            length += message.length();
+        }
+        StringBuilder frame = new StringBuilder(length);
+        frame.append('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                frame.append(',');
+            }
+            frame.append(messages.get(i));
+        }
+        return frame.append(']').toString();
+    }
+
+    /**
+     * Limits of the outbound queues (the same for all the clients).
+     */
+    public static class Limits {
+        final int queueSize;
+        final int bufferSizeLimit;
+        final int maxBatchSize;
+        final long sendTimeLimitMs;
+        final OverflowPolicy overflowPolicy;
+
+        public Limits(int queueSize, int bufferSizeLimit, int maxBatchSize,
+                long sendTimeLimitMs, OverflowPolicy overflowPolicy) {
+            this.queueSize = queueSize;
+            this.bufferSizeLimit = bufferSizeLimit;
+            this.maxBatchSize = maxBatchSize;
+            this.sendTimeLimitMs = sendTimeLimitMs;
+            this.overflowPolicy = overflowPolicy;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.session;
+
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Versioned registry of the listings sent to WebSocket clients (sessions and
+ * recordings). Each change (update or removal of an entry) increases a global
+ * revision, so that clients can get only the changes since the last revision
+ * they have seen (delta), or the whole listing (snapshot) when that revision
+ * is not available anymore. Removed entries are kept as tombstones up to a
+ * maximum. The epoch identifies this instance of the log, since revisions
+ * start again after a restart.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class RevisionLog {
+
+    public static final String SESSIONS = "sessions";
+    public static final String RECORDINGS = "recordings";
+
+    private final long epoch = System.currentTimeMillis();
+    private int maxRemoved;
+
+    private long revision = 0;
+    private long oldestRevision = 0;
+    private Map<String, Map<String, Entry>> entries = new HashMap<>();
+    private TreeMap<Long, Entry> entriesByRevision = new TreeMap<>();
+    private Deque<Entry> removedEntries = new ArrayDeque<>();
+
+    public RevisionLog(int maxRemoved) {
+        this.maxRemoved = maxRemoved;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Add or update an entry (already serialized). Returns the new revision.
+     */
+    public synchronized long put(String kind, String id, String json) {
+        return update(kind, id, json);
+    }
+
+    /**
+     * Add an entry only if it is not present (used for loading entries).
+     */
+    public synchronized boolean putIfAbsent(String kind, String id,
+            String json) {
+        Entry entry = kindEntries(kind).get(id);
+        if (entry != null && !entry.removed) {
+            return false;
+        }
+        update(kind, id, json);
+        return true;
+    }
+
+    /**
+     * Update an entry only if it is present. Returns the new revision, or -1
+     * if not present.
+     */
+    public synchronized long replace(String kind, String id, String json) {
+        Entry entry = kindEntries(kind).get(id);
+        if (entry == null || entry.removed) {
+            return -1;
+        }
+        return update(kind, id, json);
+    }
+
+    /**
+     * Remove an entry. Returns the new revision, or -1 if not present.
+     */
+    public synchronized long remove(String kind, String id) {
+        Entry entry = kindEntries(kind).get(id);
+        if (entry == null || entry.removed) {
+            return -1;
+        }
+        update(kind, id, null);
+        return revision;
+    }
+
+    public synchronized int size(String kind) {
+        return (int) kindEntries(kind).values().stream()
+                .filter(entry -> !entry.removed).count();
+    }
+
+    public synchronized Changes snapshot() {
+        Changes changes = new Changes(0, revision, true);
+        for (Map.Entry<String, Map<String, Entry>> kind : entries.entrySet()) {
+            for (Entry entry : kind.getValue().values()) {
+                if (!entry.removed) {
+                    changes.add(entry);
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Changes since the given revision of the given epoch, or a snapshot if
+     * they are not available.
+     */
+    public synchronized Changes changesSince(long fromEpoch,
+            long fromRevision) {
+        if (fromEpoch != epoch || fromRevision < oldestRevision
+                || fromRevision > revision || fromRevision <= 0) {
+            return snapshot();
+        }
+        Changes changes = new Changes(fromRevision, revision, false);
+        for (Entry entry : entriesByRevision.tailMap(fromRevision, false)
+                .values()) {
+            changes.add(entry);
+        }
+        return changes;
+    }
+
+    private Map<String, Entry> kindEntries(String kind) {
+        return entries.computeIfAbsent(kind, k -> new LinkedHashMap<>());
+    }
+
+    private long update(String kind, String id, String json) {
+        Map<String, Entry> kindEntries = kindEntries(kind);
+        Entry previous = kindEntries.get(id);
+        if (previous != null) {
+            entriesByRevision.remove(previous.revision);
+            if (previous.removed) {
+                removedEntries.remove(previous);
+            }
+        }
+
+        Entry entry = new Entry(kind, id, json, ++revision);
+        kindEntries.put(id, entry);
+        entriesByRevision.put(entry.revision, entry);
+
+        if (entry.removed) {
+            removedEntries.add(entry);
+            while (removedEntries.size() > maxRemoved) {
+                // Changes before the pruned tombstone are not available
+                Entry pruned = removedEntries.poll();
+                kindEntries(pruned.kind).remove(pruned.id);
+                entriesByRevision.remove(pruned.revision);
+                oldestRevision = pruned.revision;
+            }
+        }
+        return revision;
+    }
+
+    private static class Entry {
+        final String kind;
+        final String id;
+        final String json;
+        final long revision;
+        final boolean removed;
+
+        Entry(String kind, String id, String json, long revision) {
+            this.kind = kind;
+            this.id = id;
+            this.json = json;
+            this.revision = revision;
+            this.removed = json == null;
+        }
+    }
+
+    /**
+     * Changes of the log between two revisions (or whole content for
+     * snapshots): serialized entries updated and identifiers removed by kind.
+     */
+    public static class Changes {
+        private final long fromRevision;
+        private final long revision;
+        private final boolean snapshot;
+        private Map<String, List<String>> updated = new HashMap<>();
+        private Map<String, List<String>> removed = new HashMap<>();
+
+        Changes(long fromRevision, long revision, boolean snapshot) {
+            this.fromRevision = fromRevision;
+            this.revision = revision;
+            this.snapshot = snapshot;
+        }
+
+        void add(Entry entry) {
+            Map<String, List<String>> target = entry.removed ? removed
+                    : updated;
+            target.computeIfAbsent(entry.kind, k -> new ArrayList<>())
+                    .add(entry.removed ? entry.id : entry.json);
+        }
+
+        public long getFromRevision() {
+            return fromRevision;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+
+        public List<String> getUpdated(String kind) {
+            return updated.getOrDefault(kind, emptyList());
+        }
+
+        public List<String> getRemoved(String kind) {
+            return removed.getOrDefault(kind, emptyList());
+        }
+    }
+
+}
@@ -16,8 +16,6 @@
  */
 package io.elastest.eus.session;
 
-import java.util.concurrent.Future;
-
 /**
  * Session information.
  *
@@ -31,10 +29,11 @@ public class SessionInfo {
     private String vncUrl;
     private String vncContainerName;
     private String creationTime;
+    private long creationTimestamp;
     private String browser;
     private String version;
     private boolean liveSession;
-    private Future<?> timeoutFuture;
+    private volatile long lastActivity;
     private int hubBindPort;
     private int hubVncBindPort;
     private int noVncBindPort;
@@ -79,6 +78,14 @@ public class SessionInfo {
         this.creationTime = creationTime;
     }
 
+    public long getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    public void setCreationTimestamp(long creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
+
     public String getBrowser() {
         return browser;
     }
@@ -111,12 +118,12 @@ public class SessionInfo {
         this.liveSession = liveSession;
     }
 
-    public Future<?> getTimeoutFuture() {
-        return timeoutFuture;
+    public long getLastActivity() {
+        return lastActivity;
     }
 
-    public void setTimeoutFuture(Future<?> timeoutFuture) {
-        this.timeoutFuture = timeoutFuture;
+    public void setLastActivity(long lastActivity) {
+        this.lastActivity = lastActivity;
     }
 
     public int getHubBindPort() {
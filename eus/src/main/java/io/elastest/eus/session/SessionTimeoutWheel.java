@@ -0,0 +1,189 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.session;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel for session idle timeouts. The hot path (a proxied
+ * command) only records the last activity timestamp in the session; the wheel
+ * checks the idle time of the sessions in each bucket when it is reached, and
+ * re-hashes the ones that have been active since then. Expired sessions are
+ * dispatched to a separate cleanup executor, so that the wheel thread never
+ * blocks.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class SessionTimeoutWheel {
+
+    private final Logger log = LoggerFactory
+            .getLogger(SessionTimeoutWheel.class);
+
+    private long tickMs;
+    private long tickNanos;
+    private Executor cleanupExecutor;
+    private Consumer<SessionInfo> expirationHandler;
+
+    // Buckets are only accessed by the wheel thread. New timeouts are passed
+    // to it through a queue, and cancelled ones are just flagged
+    private List<Queue<Timeout>> wheel;
+    private Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private Map<SessionInfo, Timeout> timeouts = new ConcurrentHashMap<>();
+    private ScheduledExecutorService wheelExecutor = newSingleThreadScheduledExecutor();
+    private long tick = 0;
+
+    public SessionTimeoutWheel(long tickMs, int wheelSize,
+            Executor cleanupExecutor,
+            Consumer<SessionInfo> expirationHandler) {
+        this.tickMs = tickMs;
+        this.tickNanos = MILLISECONDS.toNanos(tickMs);
+        this.cleanupExecutor = cleanupExecutor;
+        this.expirationHandler = expirationHandler;
+
+        wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new LinkedList<>());
+        }
+    }
+
+    public void start() {
+        wheelExecutor.scheduleAtFixedRate(this::tick, tickMs, tickMs,
+                MILLISECONDS);
+    }
+
+    public void close() {
+        wheelExecutor.shutdownNow();
+    }
+
+    public void add(SessionInfo sessionInfo, long timeoutMs) {
+        sessionInfo.setLastActivity(System.nanoTime());
+        Timeout timeout = new Timeout(sessionInfo,
+                MILLISECONDS.toNanos(timeoutMs));
+        Timeout previous = timeouts.put(sessionInfo, timeout);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        pendingTimeouts.add(timeout);
+    }
+
+    public void touch(SessionInfo sessionInfo) {
+        sessionInfo.setLastActivity(System.nanoTime());
+    }
+
+    public void remove(SessionInfo sessionInfo) {
+        Timeout timeout = timeouts.remove(sessionInfo);
+        if (timeout != null) {
+            timeout.cancelled = true;
+        }
+    }
+
+    public int size() {
+        return timeouts.size();
+    }
+
+    private void tick() {
+        try {
+            Timeout pending;
+            while ((pending = pendingTimeouts.poll()) != null) {
+                schedule(pending, pending.timeoutNanos);
+            }
+
+            Queue<Timeout> bucket = wheel.get((int) (tick % wheel.size()));
+            tick++;
+
+            List<Timeout> reschedule = new ArrayList<>();
+            long now = System.nanoTime();
+            Iterator<Timeout> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Timeout timeout = iterator.next();
+                if (timeout.cancelled) {
+                    iterator.remove();
+                } else if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                } else {
+                    iterator.remove();
+                    long idleNanos = now
+                            - timeout.sessionInfo.getLastActivity();
+                    if (idleNanos >= timeout.timeoutNanos) {
+                        expire(timeout);
+                    } else {
+                        reschedule.add(timeout);
+                    }
+                }
+            }
+            for (Timeout timeout : reschedule) {
+                schedule(timeout, timeout.timeoutNanos - (now
+                        - timeout.sessionInfo.getLastActivity()));
+            }
+        } catch (Exception e) {
+            log.error("Exception in session timeout wheel", e);
+        }
+    }
+
+    private void schedule(Timeout timeout, long delayNanos) {
+        // The bucket for the current tick is the next to be processed, so the
+        // delay in ticks is rounded up and decreased by one
+        long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos) - 1;
+        timeout.remainingRounds = ticks / wheel.size();
+        wheel.get((int) ((tick + ticks) % wheel.size())).add(timeout);
+    }
+
+    private void expire(Timeout timeout) {
+        SessionInfo sessionInfo = timeout.sessionInfo;
+        if (timeouts.remove(sessionInfo, timeout)) {
+            log.trace("Session {} expired", sessionInfo.getSessionId());
+            try {
+                cleanupExecutor
+                        .execute(() -> expirationHandler.accept(sessionInfo));
+            } catch (RejectedExecutionException e) {
+                log.warn("Cleanup of expired session {} rejected",
+                        sessionInfo.getSessionId());
+            }
+        }
+    }
+
+    private static class Timeout {
+        final SessionInfo sessionInfo;
+        final long timeoutNanos;
+        long remainingRounds;
+        volatile boolean cancelled;
+
+        Timeout(SessionInfo sessionInfo, long timeoutNanos) {
+            this.sessionInfo = sessionInfo;
+            this.timeoutNanos = timeoutNanos;
+        }
+    }
+
+}
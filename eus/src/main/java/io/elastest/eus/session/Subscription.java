@@ -0,0 +1,51 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.session;
+
+/**
+ * Subscription of a WebSocket client to the changes of the revision log:
+ * last epoch and revision seen by the client, and whether or not it accepts
+ * batched frames.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class Subscription {
+
+    private final long epoch;
+    private final long revision;
+    private final boolean batch;
+
+    public Subscription(long epoch, long revision, boolean batch) {
+        this.epoch = epoch;
+        this.revision = revision;
+        this.batch = batch;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+}
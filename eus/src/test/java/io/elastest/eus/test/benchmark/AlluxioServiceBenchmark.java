@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.elastest.eus.service.AlluxioService;
+
+/**
+ * Benchmarks for reading and writing recordings in Alluxio (whole byte arrays
+ * vs chunked streaming) against a local stub of the EDM Alluxio REST API.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlluxioServiceBenchmark {
+
+    static final String STREAM_ID = "1";
+    static final String FILE_NAME = "recording.mp4";
+
+    @Param({ "1048576", "16777216" })
+    int size;
+
+    HttpServer stubAlluxio;
+    AlluxioService alluxioService;
+    Path source;
+    Path target;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] content = new byte[size];
+        new Random(0).nextBytes(content);
+        source = Files.createTempFile("alluxio-source", ".mp4");
+        Files.write(source, content);
+        target = Files.createTempFile("alluxio-target", ".mp4");
+
+        // JDK server instead of WireMock, so that allocations of the stub
+        // (which runs in the same JVM) do not hide the ones of the client
+        stubAlluxio = HttpServer.create(new InetSocketAddress(0), 0);
+        stubAlluxio.createContext("/api/v1/paths/",
+                exchange -> respond(exchange, STREAM_ID.getBytes()));
+        stubAlluxio.createContext("/api/v1/streams/",
+                exchange -> respond(exchange,
+                        exchange.getRequestURI().getPath().endsWith("/read")
+                                ? content
+                                : new byte[0]));
+        stubAlluxio.start();
+
+        alluxioService = new AlluxioService();
+        BenchmarkUtils.injectValues(alluxioService);
+        BenchmarkUtils.setField(alluxioService, "edmAlluxioUrl",
+                "http://localhost:" + stubAlluxio.getAddress().getPort()
+                        + "/");
+        alluxioService.postConstruct();
+    }
+
+    void respond(HttpExchange exchange, byte[] body) throws IOException {
+        // Request body (i.e. written content) is discarded
+        drain(exchange.getRequestBody());
+        exchange.sendResponseHeaders(200, body.length > 0 ? body.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            continue;
+        }
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        alluxioService.preDestroy();
+        stubAlluxio.stop(0);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public Object readBytes() throws Exception {
+        return Files.write(target, alluxioService.getFile(FILE_NAME));
+    }
+
+    @Benchmark
+    public long readStreaming() throws Exception {
+        return alluxioService.readFile(FILE_NAME, target);
+    }
+
+    @Benchmark
+    public boolean writeBytes() throws Exception {
+        return alluxioService.writeFile(FILE_NAME,
+                Files.readAllBytes(source));
+    }
+
+    @Benchmark
+    public boolean writeStreaming() throws Exception {
+        return alluxioService.writeFile(FILE_NAME, source);
+    }
+
+}
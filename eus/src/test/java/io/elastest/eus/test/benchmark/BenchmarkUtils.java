@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Utilities to create EUS services out of the Spring context in benchmarks.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+public class BenchmarkUtils {
+
+    private static Properties properties;
+
+    private BenchmarkUtils() {
+    }
+
+    public static void injectValues(Object bean)
+            throws IOException, IllegalAccessException {
+        DefaultConversionService conversionService = new DefaultConversionService();
+        for (Field field : bean.getClass().getDeclaredFields()) {
+            Value value = field.getAnnotation(Value.class);
+            if (value != null) {
+                String key = value.value().replaceAll("^\\$\\{|\\}$", "");
+                field.setAccessible(true);
+                field.set(bean, conversionService.convert(getProperty(key),
+                        field.getType()));
+            }
+        }
+    }
+
+    public static synchronized String getProperty(String key)
+            throws IOException {
+        if (properties == null) {
+            properties = new Properties();
+            try (InputStream stream = BenchmarkUtils.class.getClassLoader()
+                    .getResourceAsStream("application.properties")) {
+                properties.load(stream);
+            }
+
+            // Logging (DEBUG by default in EUS) is not measured
+            ((Logger) LoggerFactory.getLogger("io.elastest"))
+                    .setLevel(Level.WARN);
+        }
+
+        return properties.getProperty(key, "");
+    }
+
+    public static void setField(Object bean, String fieldName, Object value)
+            throws ReflectiveOperationException {
+        Field field = bean.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(bean, value);
+    }
+
+    public static void postConstruct(Object bean)
+            throws ReflectiveOperationException {
+        Method postConstruct = bean.getClass()
+                .getDeclaredMethod("postConstruct");
+        postConstruct.setAccessible(true);
+        postConstruct.invoke(bean);
+    }
+
+}
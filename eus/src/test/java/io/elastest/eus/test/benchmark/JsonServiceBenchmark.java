@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.springframework.http.HttpMethod.DELETE;
+
+import java.util.Optional;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.elastest.eus.browser.BrowserCapabilities;
+import io.elastest.eus.service.JsonService;
+
+/**
+ * Benchmarks for JSON service (parsing of WebDriver messages).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonServiceBenchmark {
+
+    static final String CAPABILITIES = "{\"desiredCapabilities\": {"
+            + "\"browserName\": \"chrome\", \"version\": \"59\","
+            + "\"platform\": \"ANY\", \"live\": true}}";
+
+    static final String NON_LIVE_CAPABILITIES = "{\"desiredCapabilities\": {"
+            + "\"browserName\": \"chrome\", \"version\": \"59\","
+            + "\"platform\": \"ANY\"}}";
+
+    static final String RAW_CAPABILITIES = "{\r\n\t\"desiredCapabilities\":  {\r\n"
+            + "\t\t\"browserName\":   \"chrome\",\r\n"
+            + "\t\t\"version\":   \"59\",\r\n"
+            + "\t\t\"platform\":   \"ANY\"\r\n\t}\r\n}  ";
+
+    static final String PATH = "/session/8b5c4d3e-2f1a-4b6c-9d8e-7f6a5b4c3d2e/element/0.4567/click";
+
+    JsonService jsonService;
+
+    @Setup
+    public void setup() throws Exception {
+        jsonService = new JsonService();
+        BenchmarkUtils.injectValues(jsonService);
+    }
+
+    @Benchmark
+    public String getBrowser() {
+        return jsonService.getBrowser(CAPABILITIES);
+    }
+
+    @Benchmark
+    public BrowserCapabilities parseCapabilities() {
+        return jsonService.parseCapabilities(CAPABILITIES);
+    }
+
+    @Benchmark
+    public Optional<String> getSessionIdFromPath() {
+        return jsonService.getSessionIdFromPath(PATH);
+    }
+
+    @Benchmark
+    public boolean isDeleteSessionRequest() {
+        return jsonService.isDeleteSessionRequest(DELETE, PATH);
+    }
+
+    @Benchmark
+    public String getEndpointTemplate() {
+        return jsonService.getEndpointTemplate(PATH);
+    }
+
+    @Benchmark
+    public String sanitizeMessage() {
+        return jsonService.sanitizeMessage(RAW_CAPABILITIES);
+    }
+
+    @Benchmark
+    public boolean isLive() {
+        return jsonService.isLive(CAPABILITIES);
+    }
+
+    @Benchmark
+    public boolean isLiveNonLiveSession() {
+        return jsonService.isLive(NON_LIVE_CAPABILITIES);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.elastest.eus.service.PropertiesService;
+
+/**
+ * Benchmarks for properties service (browser lookup from capabilities).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertiesServiceBenchmark {
+
+    PropertiesService propertiesService;
+
+    @Setup
+    public void setup() throws Exception {
+        propertiesService = new PropertiesService();
+        BenchmarkUtils.injectValues(propertiesService);
+        BenchmarkUtils.postConstruct(propertiesService);
+    }
+
+    @Benchmark
+    public String getKeyWithVersion() {
+        return propertiesService.getKeyFromCapabilities("firefox", "52",
+                "LINUX");
+    }
+
+    @Benchmark
+    public String getKeyWithoutVersion() {
+        return propertiesService.getKeyFromCapabilities("chrome", null, "ANY");
+    }
+
+    @Benchmark
+    public String getKeyNotFound() {
+        return propertiesService.getKeyFromCapabilities("opera", "12", null);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.SessionService;
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.SessionInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmarks for WebSocket broadcast (fan-out) in session service.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionServiceBenchmark {
+
+    @Param({ "1", "10", "100" })
+    int clients;
+
+    @Param({ "1", "10", "100" })
+    int sessions;
+
+    SessionService sessionService;
+    SessionInfo sessionInfo;
+
+    @Setup
+    public void setup() throws Exception {
+        JsonService jsonService = new JsonService();
+        BenchmarkUtils.injectValues(jsonService);
+        sessionService = new SessionService(null, jsonService, null,
+                new MetricsService(new SimpleMeterRegistry()),
+                new RevisionLog(1000));
+        BenchmarkUtils.injectValues(sessionService);
+        // Sent inline, to measure serialization and batching of frames
+        BenchmarkUtils.setField(sessionService, "sendExecutor",
+                newDirectExecutorService());
+
+        for (int i = 0; i < clients; i++) {
+            sessionService.afterConnectionEstablished(
+                    new StubWebSocketSession("client-" + i));
+        }
+        for (int i = 0; i < sessions; i++) {
+            sessionInfo = new SessionInfo();
+            sessionInfo.setSessionId("session-" + i);
+            sessionInfo.setBrowser("chrome");
+            sessionInfo.setVersion("59");
+            sessionInfo.setCreationTime("01-01-2017 12:00:00 UTC");
+            sessionInfo.setVncUrl("http://172.17.0.1:37000/vnc.html?host="
+                    + "172.17.0.1&port=37001&resize=scale&autoconnect=true"
+                    + "&password=secret");
+            sessionService.putSession(sessionInfo.getSessionId(),
+                    sessionInfo);
+        }
+    }
+
+    @Benchmark
+    public void sendNewSessionToAllClients() throws Exception {
+        sessionService.sendNewSessionToAllClients(sessionInfo);
+    }
+
+    @Benchmark
+    public void sendAllSessionsInfoToAllClients() throws Exception {
+        sessionService.sendAllSessionsInfoToAllClients();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.benchmark;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import io.elastest.eus.service.HubClientService;
+import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.SessionService;
+import io.elastest.eus.service.WebDriverService;
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.SessionInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmarks for the proxy path of WebDriver commands (non-intercepted
+ * commands of an existing session) against a local stub hub.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebDriverServiceBenchmark {
+
+    static final String SESSION_ID = "8b5c4d3e-2f1a-4b6c-9d8e-7f6a5b4c3d2e";
+    static final String HUB_RESPONSE = "{\"sessionId\": \"" + SESSION_ID
+            + "\", \"status\": 0, \"value\": \"http://elastest.io/\"}";
+
+    @Param({ "true", "false" })
+    boolean streaming;
+
+    WireMockServer stubHub;
+    HubClientService hubClientService;
+    WebDriverService webDriverService;
+    String contextPath;
+
+    @Setup
+    public void setup() throws Exception {
+        stubHub = new WireMockServer(options().dynamicPort());
+        stubHub.start();
+        stubHub.stubFor(any(urlMatching("/wd/hub/session/.*"))
+                .willReturn(aResponse().withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(HUB_RESPONSE)));
+
+        JsonService jsonService = new JsonService();
+        BenchmarkUtils.injectValues(jsonService);
+        hubClientService = new HubClientService();
+        BenchmarkUtils.injectValues(hubClientService);
+        hubClientService.postConstruct();
+        MetricsService metricsService = new MetricsService(
+                new SimpleMeterRegistry());
+        SessionService sessionService = new SessionService(null, jsonService,
+                null, metricsService, new RevisionLog(1000));
+        BenchmarkUtils.injectValues(sessionService);
+
+        // Live session, so that session timer is not used
+        SessionInfo sessionInfo = new SessionInfo();
+        sessionInfo.setSessionId(SESSION_ID);
+        sessionInfo.setLiveSession(true);
+        sessionInfo.setHubUrl(
+                "http://localhost:" + stubHub.port() + "/wd/hub");
+        sessionService.putSession(SESSION_ID, sessionInfo);
+
+        webDriverService = new WebDriverService(null, hubClientService, null,
+                jsonService, sessionService, null, null, metricsService);
+        BenchmarkUtils.injectValues(webDriverService);
+        BenchmarkUtils.setField(webDriverService, "hubProxyStreaming",
+                streaming);
+        contextPath = BenchmarkUtils
+                .getProperty("server.servlet.context-path");
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        hubClientService.teardown();
+        stubHub.stop();
+    }
+
+    @Benchmark
+    public Object getUrl() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                contextPath + "/session/" + SESSION_ID + "/url");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ResponseEntity<String> responseEntity = webDriverService
+                .session(request, response);
+        return responseEntity != null ? responseEntity
+                : response.getContentAsByteArray();
+    }
+
+    @Benchmark
+    public Object postUrl() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST",
+                contextPath + "/session/" + SESSION_ID + "/url");
+        request.setContentType("application/json");
+        request.setContent("{\"url\": \"http://elastest.io/\"}".getBytes());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ResponseEntity<String> responseEntity = webDriverService
+                .session(request, response);
+        return responseEntity != null ? responseEntity
+                : response.getContentAsByteArray();
+    }
+
+}
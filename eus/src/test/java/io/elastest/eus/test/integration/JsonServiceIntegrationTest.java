@@ -16,15 +16,23 @@
  */
 package io.elastest.eus.test.integration;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpMethod.DELETE;
+import static org.springframework.http.HttpMethod.GET;
 
 import java.util.Optional;
+import java.util.Random;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import io.elastest.eus.browser.BrowserCapabilities;
 import io.elastest.eus.service.JsonService;
 
 /**
@@ -72,4 +81,91 @@ public class JsonServiceIntegrationTest {
                 errorMessage);
     }
 
+    @ParameterizedTest(name = "Checking {0}")
+    @DisplayName("Endpoint templates")
+    @CsvSource({ "/session, /session",
+            "/session/4562f70d-a350-4e88-96da-25d56c91f336, /session/{sessionId}",
+            "/session/4562f70d/url, /session/{sessionId}/url",
+            "/session/4562f70d/element/0.52-1/click, /session/{sessionId}/element/{elementId}/click",
+            "/session/4562f70d/element/active, /session/{sessionId}/element/active",
+            "/session/4562f70d/cookie/foo, /session/{sessionId}/cookie/{name}",
+            "/session/4562f70d/window/CDwindow-1/size, /session/{sessionId}/window/{windowHandle}/size",
+            "/session/4562f70d/window/current/maximize, /session/{sessionId}/window/{windowHandle}/maximize",
+            "/session/4562f70d/window/rect, /session/{sessionId}/window/rect",
+            "/session/4562f70d/window/handles, /session/{sessionId}/window/handles",
+            "/session/4562f70d/element/0.1-1/equals/0.1-2, /session/{sessionId}/element/{elementId}/equals/{otherId}",
+            "/session/4562f70d/element/0.1-1/attribute/href, /session/{sessionId}/element/{elementId}/attribute/{name}",
+            "/session/4562f70d/element/0.1-1/css/color, /session/{sessionId}/element/{elementId}/css/{name}",
+            "/status, /status" })
+    void testEndpointTemplate(String path, String template) {
+        assertEquals(template, jsonService.getEndpointTemplate(path));
+    }
+
+    @ParameterizedTest(name = "Checking {0}")
+    @DisplayName("Delete session requests")
+    @CsvSource({ "/session/4562f70d, true", "/session/4562f70d/, false",
+            "/session/4562f70d/window, false", "/session, false",
+            "/session/, true", "/sessions/4562f70d, true", "/status, false",
+            "'', false" })
+    void testDeleteSessionRequest(String path, boolean deleteSession) {
+        assertEquals(deleteSession,
+                jsonService.isDeleteSessionRequest(DELETE, path));
+        assertFalse(jsonService.isDeleteSessionRequest(GET, path));
+
+        // Same result than counting the slashes of the path
+        assertEquals(path.startsWith("/session")
+                && jsonService.countCharsInString(path, '/') == 2,
+                deleteSession);
+    }
+
+    @ParameterizedTest(name = "Checking {0}")
+    @DisplayName("Sanitizing messages")
+    @ValueSource(strings = { "", "   ", " \t\r\n ", "{}",
+            "{\"browserName\":  \"chrome\"}",
+            " {\n\t\"name\": \"a  \\\"quoted\\\"   name\"\r\n} ",
+            "a \n b", "a\t  \t  b", "  trailing spaces   " })
+    void testSanitizeMessage(String message) {
+        assertEquals(legacySanitizeMessage(message),
+                jsonService.sanitizeMessage(message));
+    }
+
+    @Test
+    @DisplayName("Sanitizing random messages")
+    void testSanitizeRandomMessages() {
+        char[] chars = { ' ', ' ', '\r', '\n', '\t', 'a', '"', '\\' };
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder message = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                message.append(chars[random.nextInt(chars.length)]);
+            }
+            assertEquals(legacySanitizeMessage(message.toString()),
+                    jsonService.sanitizeMessage(message.toString()));
+        }
+        assertNull(jsonService.sanitizeMessage(null));
+    }
+
+    String legacySanitizeMessage(String message) {
+        // Regex based implementation, used as reference
+        return message.trim().replaceAll(" +", " ").replaceAll("\\r", "")
+                .replaceAll("\\n", "").replaceAll("\\t", "");
+    }
+
+    @Test
+    @DisplayName("Parsing capabilities")
+    void testCapabilities() {
+        BrowserCapabilities capabilities = jsonService
+                .parseCapabilities("{\"desiredCapabilities\": {"
+                        + "\"browserName\": \"chrome\", \"version\": 59,"
+                        + "\"live\": true}}");
+        assertEquals("chrome", capabilities.getBrowserName());
+        assertEquals("59", capabilities.getVersion());
+        assertEquals("", capabilities.getPlatform());
+        assertTrue(capabilities.isLive());
+
+        assertFalse(jsonService.isLive("{\"desiredCapabilities\": {}}"));
+        assertFalse(jsonService.isLive("{}"));
+    }
+
 }
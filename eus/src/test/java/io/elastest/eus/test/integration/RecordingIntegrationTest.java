@@ -17,12 +17,15 @@
 package io.elastest.eus.test.integration;
 
 import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
@@ -38,6 +41,9 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import io.elastest.eus.service.RecordingService;
+import io.elastest.eus.session.SessionInfo;
+
 /**
  * Tests for recording service with non-existing Alluxio service.
  *
@@ -58,6 +64,9 @@ public class RecordingIntegrationTest {
     @Autowired
     WebApplicationContext webContext;
 
+    @Autowired
+    RecordingService recordingService;
+
     MockMvc mockMvc;
 
     @BeforeEach
@@ -73,6 +82,65 @@ public class RecordingIntegrationTest {
                 .andExpect(content().string(containsString("sessionId.mp4")));
     }
 
+    @Test
+    @DisplayName("GET /recording (with filters)")
+    void testGetRecordings() throws Exception {
+        // Recordings created at 10:00, 14:00 and 22:00 (UTC)
+        long day = 1505260800000L;
+        long hour = 3600000L;
+        String[] sessionIds = { "recording-am", "recording-pm",
+                "recording-night" };
+        long[] creationHours = { 10, 14, 22 };
+        String[] browsers = { "chrome", "chrome", "firefox" };
+        for (int i = 0; i < sessionIds.length; i++) {
+            SessionInfo sessionInfo = new SessionInfo();
+            sessionInfo.setSessionId(sessionIds[i]);
+            sessionInfo.setBrowser(browsers[i]);
+            sessionInfo.setVersion("60");
+            sessionInfo.setCreationTimestamp(day + creationHours[i] * hour);
+            recordingService.storeMetadata(sessionInfo);
+        }
+
+        try {
+            // Chrome recordings created in the afternoon
+            String response = mockMvc
+                    .perform(get("/recording").param("browser", "chrome")
+                            .param("from", String.valueOf(day + 12 * hour))
+                            .param("to", String.valueOf(day + 24 * hour)))
+                    .andExpect(status().isOk()).andReturn().getResponse()
+                    .getContentAsString();
+            JSONObject page = new JSONObject(response);
+            assertEquals(1, page.getInt("total"));
+            assertEquals("recording-pm", page.getJSONArray("recordings")
+                    .getJSONObject(0).getString("id"));
+
+            // All of them, sorted by creation time
+            response = mockMvc
+                    .perform(get("/recording").param("from",
+                            String.valueOf(day))
+                            .param("to", String.valueOf(day + 24 * hour))
+                            .param("sort", "creationTime")
+                            .param("order", "asc"))
+                    .andExpect(status().isOk()).andReturn().getResponse()
+                    .getContentAsString();
+            JSONArray recordings = new JSONObject(response)
+                    .getJSONArray("recordings");
+            assertEquals(3, recordings.length());
+            for (int i = 0; i < sessionIds.length; i++) {
+                assertEquals(sessionIds[i],
+                        recordings.getJSONObject(i).getString("id"));
+            }
+
+            mockMvc.perform(get("/recording").param("sort", "foo"))
+                    .andExpect(status().isBadRequest());
+
+        } finally {
+            for (String sessionId : sessionIds) {
+                recordingService.deleteRecording(sessionId);
+            }
+        }
+    }
+
     @Test
     @DisplayName("DELETE /session/{sessionId}/recording")
     void testDeleteRecording() throws Exception {
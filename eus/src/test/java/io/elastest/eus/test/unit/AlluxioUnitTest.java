@@ -18,18 +18,22 @@ package io.elastest.eus.test.unit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.io.IOUtils;
@@ -74,6 +78,7 @@ public class AlluxioUnitTest {
     String filename = "foo";
     String streamId = "1";
     String contentFile = "dummy";
+    String metadataFilename = "83c3fdc7-2024-4c40-b90c-4cf0806fd622.eus";
 
     @BeforeAll
     void setup() throws Exception {
@@ -99,12 +104,24 @@ public class AlluxioUnitTest {
         FieldSetter.setField(alluxioService, AlluxioService.class
                 .getDeclaredField(metadataExtensionFieldName),
                 metadataExtension);
+        FieldSetter.setField(alluxioService,
+                AlluxioService.class.getDeclaredField("chunkSize"), 8192);
+        FieldSetter.setField(alluxioService,
+                AlluxioService.class.getDeclaredField("uploadChunkSize"), 2L);
+        FieldSetter.setField(alluxioService,
+                AlluxioService.class.getDeclaredField("timeoutMs"), 5000L);
+        FieldSetter.setField(alluxioService,
+                AlluxioService.class.getDeclaredField("fetchThreads"), 2);
 
         log.debug("Mock servicio for Alluxio in URL {}", mockAlluxioUrl);
 
         // Stubbing service
         stubFor(post(urlEqualTo("/api/v1/paths//" + filename + "/open-file"))
                 .willReturn(aResponse().withStatus(200).withBody(streamId)));
+        stubFor(post(urlEqualTo(
+                "/api/v1/paths//" + metadataFilename + "/open-file"))
+                        .willReturn(aResponse().withStatus(200)
+                                .withBody(streamId)));
         stubFor(post(urlEqualTo("/api/v1/streams/" + streamId + "/read"))
                 .willReturn(aResponse().withStatus(200).withBody(contentFile)));
         stubFor(post(urlEqualTo("/api/v1/streams/" + streamId + "/close"))
@@ -134,7 +151,13 @@ public class AlluxioUnitTest {
     @Test
     @DisplayName("Write file")
     void testWriteFile() throws IOException {
-        alluxioService.writeFile(filename, contentFile.getBytes());
+        boolean writeFileResult = alluxioService.writeFile(filename,
+                contentFile.getBytes());
+        assertThat(writeFileResult, equalTo(true));
+
+        // Content is written in chunks of 2 bytes
+        verify(3, postRequestedFor(
+                urlEqualTo("/api/v1/streams/" + streamId + "/write")));
     }
 
     @Test
@@ -151,8 +174,18 @@ public class AlluxioUnitTest {
         assertThat(metadataFileList, not(empty()));
     }
 
+    @Test
+    @DisplayName("Fetch metatadata")
+    void testFetchMetadata() throws IOException {
+        List<String> metadata = new ArrayList<>();
+        int skipped = alluxioService.fetchMetadata(metadata::add);
+        assertThat(skipped, equalTo(0));
+        assertThat(metadata, contains(contentFile));
+    }
+
     @AfterAll
     void teardown() {
+        alluxioService.preDestroy();
         wireMockServer.stop();
     }
 
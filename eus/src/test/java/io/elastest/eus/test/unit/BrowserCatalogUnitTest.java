@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import io.elastest.eus.browser.BrowserCatalog;
+
+/**
+ * Tests for browser catalog (capabilities matching).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for browser catalog")
+public class BrowserCatalogUnitTest {
+
+    BrowserCatalog browserCatalog;
+
+    @BeforeAll
+    void setup() {
+        Map<String, String> entries = new HashMap<>();
+        entries.put("chrome_9_LINUX", "chrome-9");
+        entries.put("chrome_59_LINUX", "chrome-59");
+        entries.put("chrome_60_LINUX", "chrome-60");
+        entries.put("chrome_100_LINUX", "chrome-100");
+        entries.put("chrome_58_WINDOWS", "chrome-58-windows");
+        entries.put("firefox_54_LINUX", "firefox-54");
+        browserCatalog = new BrowserCatalog(entries, "_");
+    }
+
+    @ParameterizedTest(name = "{0} {1} {2} -> {3}")
+    @DisplayName("Matching of browser, version and platform")
+    @CsvSource({ "chrome, 59, LINUX, chrome_59_LINUX",
+            "chrome, 59.0.3071, , chrome_59_LINUX",
+            "chrome, latest, , chrome_100_LINUX",
+            "chrome, , , chrome_100_LINUX", "CHROME, 9, linux, chrome_9_LINUX",
+            "chrome, '[59,100)', , chrome_60_LINUX",
+            "chrome, '(,60]', LINUX, chrome_60_LINUX",
+            "chrome, '[58,59)', , chrome_58_WINDOWS",
+            "chrome, latest, WINDOWS, chrome_58_WINDOWS",
+            "firefox, , LINUX, firefox_54_LINUX" })
+    void testFindKey(String browserName, String version, String platform,
+            String expectedKey) {
+        assertEquals(expectedKey,
+                browserCatalog.findKey(browserName, version, platform));
+    }
+
+    @Test
+    @DisplayName("Partial versions and unknown browsers do not match")
+    void testNoMatch() {
+        // "5" was matched by "chrome_59" when keys were compared by contains
+        assertNull(browserCatalog.findKey("chrome", "5", null));
+        assertNull(browserCatalog.findKey("chrome", "59", "MAC"));
+        assertNull(browserCatalog.findKey("opera", null, null));
+    }
+
+}
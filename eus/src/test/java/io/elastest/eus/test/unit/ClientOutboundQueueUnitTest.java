@@ -0,0 +1,349 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.session.ClientOutboundQueue.OverflowPolicy.DISCONNECT;
+import static io.elastest.eus.session.ClientOutboundQueue.OverflowPolicy.DROP_OLDEST;
+import static io.elastest.eus.session.ClientOutboundQueue.OverflowPolicy.RESYNC;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.web.socket.CloseStatus.SESSION_NOT_RELIABLE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import io.elastest.eus.session.ClientOutboundQueue;
+import io.elastest.eus.session.ClientOutboundQueue.Limits;
+
+/**
+ * Tests for WebSocket client outbound queues.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for WebSocket client outbound queues")
+public class ClientOutboundQueueUnitTest {
+
+    ExecutorService sendExecutor = newCachedThreadPool();
+
+    List<String> frames;
+    CountDownLatch firstSend;
+    CountDownLatch release;
+    CountDownLatch sent;
+
+    WebSocketSession stalledSession(int expectedFrames) throws IOException {
+        // Local copies, since drains of previous tests can still be running
+        List<String> sessionFrames = new CopyOnWriteArrayList<>();
+        CountDownLatch sessionFirstSend = new CountDownLatch(1);
+        CountDownLatch sessionRelease = new CountDownLatch(1);
+        CountDownLatch sessionSent = new CountDownLatch(expectedFrames);
+        frames = sessionFrames;
+        firstSend = sessionFirstSend;
+        release = sessionRelease;
+        sent = sessionSent;
+
+        // The first send is stalled until released
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("client-1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            sessionFrames.add(
+                    ((TextMessage) invocation.getArgument(0)).getPayload());
+            sessionFirstSend.countDown();
+            sessionRelease.await(5, SECONDS);
+            sessionSent.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    @Test
+    @DisplayName("Messages are sent in their own frame by default")
+    void testNoBatching() throws Exception {
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(3),
+                new Limits(10, 1024, 10, 10000, DROP_OLDEST), sendExecutor,
+                () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+        client.offer("{\"b\":2}");
+        client.offer("{\"c\":3}");
+
+        release.countDown();
+        assertTrue(sent.await(5, SECONDS));
+        assertEquals(asList("{\"a\":1}", "{\"b\":2}", "{\"c\":3}"), frames);
+    }
+
+    @Test
+    @DisplayName("Slow client does not block senders and gets batched frames")
+    void testDropOldest() throws Exception {
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(3),
+                new Limits(3, 1024, 10, 10000, DROP_OLDEST), sendExecutor,
+                () -> asList("{\"snapshot\":1}"));
+        client.setBatching(true);
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        // Client stalled in the first send: messages are queued until full,
+        // and then the oldest ones are dropped
+        assertTrue(client.offer("{\"b\":2}"));
+        assertTrue(client.offer("{\"c\":3}"));
+        assertTrue(client.offer("{\"d\":4}"));
+        assertFalse(client.offer("{\"e\":5}"));
+        assertEquals(1, client.getOverflows());
+        assertEquals(3, client.size());
+
+        // Frames are always arrays, and the client is resynced with a
+        // snapshot before the messages still queued
+        release.countDown();
+        assertTrue(sent.await(5, SECONDS));
+        assertEquals(asList("[{\"a\":1}]", "[{\"snapshot\":1}]",
+                "[{\"c\":3},{\"d\":4},{\"e\":5}]"), frames);
+    }
+
+    @Test
+    @DisplayName("Stalled client is closed and does not block other clients")
+    void testStalledClient() throws Exception {
+        // A single send thread, taken by the stalled client
+        ExecutorService singleSendExecutor = newSingleThreadExecutor();
+        try {
+            WebSocketSession stalled = mock(WebSocketSession.class);
+            when(stalled.getId()).thenReturn("client-1");
+            when(stalled.isOpen()).thenReturn(true);
+            CountDownLatch blocked = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                // The send never returns (unless interrupted)
+                blocked.countDown();
+                new CountDownLatch(1).await();
+                return null;
+            }).when(stalled).sendMessage(any());
+            ClientOutboundQueue stalledClient = new ClientOutboundQueue(
+                    stalled, new Limits(100, 1024, 10, 100, DROP_OLDEST),
+                    singleSendExecutor, () -> emptyList());
+
+            WebSocketSession other = mock(WebSocketSession.class);
+            when(other.getId()).thenReturn("client-2");
+            when(other.isOpen()).thenReturn(true);
+            CountDownLatch otherSent = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                otherSent.countDown();
+                return null;
+            }).when(other).sendMessage(any());
+            ClientOutboundQueue otherClient = new ClientOutboundQueue(other,
+                    new Limits(100, 1024, 10, 100, DROP_OLDEST),
+                    singleSendExecutor, () -> emptyList());
+
+            stalledClient.offer("{\"a\":1}");
+            assertTrue(blocked.await(5, SECONDS));
+            otherClient.offer("{\"a\":1}");
+            assertFalse(otherSent.await(200, MILLISECONDS));
+
+            // Once the send time limit is exceeded, the stalled client is
+            // closed (with the default policy) and the thread is released
+            assertFalse(stalledClient.offer("{\"b\":2}"));
+            verify(stalled).close(SESSION_NOT_RELIABLE);
+            assertTrue(otherSent.await(5, SECONDS));
+            assertFalse(stalledClient.offer("{\"c\":3}"));
+            assertEquals(1, stalledClient.getOverflows());
+        } finally {
+            singleSendExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Stalled client is closed without new messages")
+    void testCloseIfStalled() throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("client-1");
+        when(session.isOpen()).thenReturn(true);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            blocked.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return null;
+        }).when(session).sendMessage(any());
+        ClientOutboundQueue client = new ClientOutboundQueue(session,
+                new Limits(100, 1024, 10, 100, DROP_OLDEST), sendExecutor,
+                () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(blocked.await(5, SECONDS));
+        assertFalse(client.closeIfStalled());
+
+        // As done periodically for all the clients
+        Thread.sleep(200);
+        assertTrue(client.closeIfStalled());
+        assertTrue(interrupted.await(5, SECONDS));
+        verify(session).close(SESSION_NOT_RELIABLE);
+        assertFalse(client.closeIfStalled());
+        assertEquals(1, client.getOverflows());
+    }
+
+    @Test
+    @DisplayName("Message bigger than the buffer size limit is rejected")
+    void testOversizedMessage() throws Exception {
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(1),
+                new Limits(10, 20, 10, 10000, DROP_OLDEST), sendExecutor,
+                () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        assertTrue(client.offer("{\"b\":2}"));
+        assertFalse(client.offer("{\"c\":\"" + new String(new char[20])
+                .replace('\0', 'x') + "\"}"));
+        assertEquals(1, client.size());
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Buffer size limit is measured in UTF-8 bytes")
+    void testByteLength() throws Exception {
+        for (String message : asList("", "{\"a\":1}", "{\"a\":\"\u00f1\"}",
+                "{\"a\":\"\u20ac\"}", "{\"a\":\"\ud83d\ude00\"}")) {
+            assertEquals(message.getBytes(UTF_8).length,
+                    ClientOutboundQueue.byteLength(message));
+        }
+
+        // 12 chars, but 16 bytes
+        String message = "{\"a\":\"\u00f1\u00f1\u00f1\u00f1\"}";
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(1), new Limits(10, 32, 10, 10000, DROP_OLDEST),
+                sendExecutor, () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        assertTrue(client.offer(message));
+        assertTrue(client.offer(message));
+        assertEquals(32, client.getQueuedBytes());
+        assertFalse(client.offer(message));
+        assertEquals(2, client.size());
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Concurrent producers do not exceed the queue limits")
+    void testConcurrentOffers() throws Exception {
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(1),
+                new Limits(5, 1024, 10, 10000, DROP_OLDEST), sendExecutor,
+                () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> producers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            producers.add(sendExecutor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 100; j++) {
+                    client.offer("{\"b\":2}");
+                    assertTrue(client.size() <= 5);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> producer : producers) {
+            producer.get(5, SECONDS);
+        }
+        assertEquals(5, client.size());
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Slow client with a full queue is resynced with a snapshot")
+    void testResync() throws Exception {
+        ClientOutboundQueue client = new ClientOutboundQueue(
+                stalledSession(2),
+                new Limits(2, 1024, 10, 10000, RESYNC), sendExecutor,
+                () -> asList("{\"snapshot\":1}", "{\"snapshot\":2}"));
+        client.setBatching(true);
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        assertTrue(client.offer("{\"b\":2}"));
+        assertTrue(client.offer("{\"c\":3}"));
+        assertFalse(client.offer("{\"d\":4}"));
+        assertEquals(0, client.size());
+
+        // Already included in the snapshot
+        assertTrue(client.offer("{\"e\":5}"));
+        assertEquals(0, client.size());
+
+        release.countDown();
+        assertTrue(sent.await(5, SECONDS));
+        assertEquals(asList("[{\"a\":1}]",
+                "[{\"snapshot\":1},{\"snapshot\":2}]"), frames);
+    }
+
+    @Test
+    @DisplayName("Stalled client is disconnected")
+    void testDisconnect() throws Exception {
+        WebSocketSession session = stalledSession(1);
+        ClientOutboundQueue client = new ClientOutboundQueue(session,
+                new Limits(100, 1024, 10, 0, DISCONNECT), sendExecutor,
+                () -> emptyList());
+        client.offer("{\"a\":1}");
+        assertTrue(firstSend.await(5, SECONDS));
+
+        assertFalse(client.offer("{\"b\":2}"));
+        verify(session).close(SESSION_NOT_RELIABLE);
+        release.countDown();
+    }
+
+    @AfterAll
+    void teardown() {
+        sendExecutor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static com.github.dockerjava.api.model.EventType.CONTAINER;
+import static com.github.dockerjava.api.model.EventType.NETWORK;
+import static com.github.dockerjava.api.model.EventType.VOLUME;
+import static io.elastest.eus.docker.ContainerEvent.HEALTHY;
+import static io.elastest.eus.docker.ContainerEvent.STARTED;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.EventsCmd;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.core.command.EventsResultCallback;
+
+import io.elastest.eus.docker.ContainerLifecycleMonitor;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for container lifecycle monitor (Docker events).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for container lifecycle monitor")
+public class ContainerLifecycleUnitTest {
+
+    @Mock
+    DockerClient dockerClient;
+
+    ContainerLifecycleMonitor containerLifecycleMonitor;
+    EventsResultCallback eventsCallback;
+
+    @BeforeAll
+    void setup() {
+        EventsCmd eventsCmd = mock(EventsCmd.class, RETURNS_SELF);
+        when(dockerClient.eventsCmd()).thenReturn(eventsCmd);
+        when(eventsCmd.exec(any())).thenAnswer(invocation -> {
+            eventsCallback = invocation.getArgument(0);
+            return eventsCallback;
+        });
+
+        containerLifecycleMonitor = new ContainerLifecycleMonitor(dockerClient,
+                1000);
+        containerLifecycleMonitor.start();
+    }
+
+    Event event(String action, String containerName) {
+        return event(CONTAINER, action, containerName);
+    }
+
+    Event event(EventType type, String action, String name) {
+        return new Event().withType(type).withAction(action)
+                .withEventActor(new EventActor()
+                        .withAttributes(singletonMap("name", name)));
+    }
+
+    @Test
+    @DisplayName("Await container started")
+    void testStarted() {
+        CompletableFuture<Void> started = containerLifecycleMonitor
+                .await("container-1", STARTED);
+        eventsCallback.onNext(event("start", "container-2"));
+        assertFalse(started.isDone());
+
+        eventsCallback.onNext(event("start", "container-1"));
+        assertTrue(started.isDone());
+        assertFalse(started.isCompletedExceptionally());
+    }
+
+    @Test
+    @DisplayName("Container died while awaiting healthy")
+    void testDied() {
+        CompletableFuture<Void> healthy = containerLifecycleMonitor
+                .await("container-3", HEALTHY);
+        eventsCallback.onNext(event("die", "container-3"));
+        assertTrue(healthy.isCompletedExceptionally());
+    }
+
+    @Test
+    @DisplayName("Events of other types are ignored")
+    void testOtherTypes() {
+        CompletableFuture<Void> started = containerLifecycleMonitor
+                .await("container-4", STARTED);
+        eventsCallback.onNext(event(NETWORK, "destroy", "container-4"));
+        eventsCallback.onNext(event(VOLUME, "destroy", "container-4"));
+        assertFalse(started.isDone());
+
+        eventsCallback.onNext(event(null, "start", "container-4"));
+        assertTrue(started.isDone());
+        assertFalse(started.isCompletedExceptionally());
+    }
+
+    @AfterAll
+    void teardown() throws IOException {
+        containerLifecycleMonitor.close();
+    }
+
+}
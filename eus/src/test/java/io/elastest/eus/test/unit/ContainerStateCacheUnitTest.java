@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.docker.ContainerEvent.DESTROYED;
+import static io.elastest.eus.docker.ContainerEvent.STARTED;
+import static java.lang.System.nanoTime;
+import static java.util.Optional.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import io.elastest.eus.docker.ContainerStateCache;
+
+/**
+ * Tests for container state cache.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for container state cache")
+public class ContainerStateCacheUnitTest {
+
+    @Test
+    @DisplayName("Event entries are kept while connected, inspected ones expire")
+    void testCache() throws Exception {
+        ContainerStateCache cache = new ContainerStateCache(50);
+        cache.onConnectionChange(true);
+
+        long inspectStart = nanoTime();
+        cache.onEvent("container-1", STARTED);
+        cache.inspected("container-2", true, false, inspectStart);
+
+        // Event more recent than inspection is not overwritten
+        cache.inspected("container-1", true, false, inspectStart);
+
+        Thread.sleep(100);
+        assertEquals(Optional.of(true), cache.isRunning("container-1"));
+        assertEquals(empty(), cache.isRunning("container-2"));
+
+        cache.onEvent("container-1", DESTROYED);
+        assertEquals(Optional.of(false), cache.exists("container-1"));
+
+        // Events might be missed when disconnected
+        cache.onConnectionChange(false);
+        assertEquals(empty(), cache.exists("container-1"));
+    }
+
+}
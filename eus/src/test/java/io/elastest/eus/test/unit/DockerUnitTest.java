@@ -16,16 +16,22 @@
  */
 package io.elastest.eus.test.unit;
 
+import static io.elastest.eus.docker.ContainerEvent.STARTED;
 import static io.elastest.eus.docker.DockerContainer.dockerBuilder;
 import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
@@ -33,15 +39,22 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.ConflictException;
+import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.ExposedPort;
 import com.github.dockerjava.api.model.PortBinding;
 import com.github.dockerjava.api.model.Ports;
 import com.github.dockerjava.api.model.Ports.Binding;
 
+import io.elastest.eus.docker.ContainerLifecycleMonitor;
+import io.elastest.eus.docker.ContainerStateCache;
 import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.MetricsService;
 import io.elastest.eus.service.ShellService;
 import io.elastest.eus.test.util.MockitoExtension;
 
@@ -64,6 +77,9 @@ public class DockerUnitTest {
     @Mock
     ShellService shellService;
 
+    @Mock
+    MetricsService metricsService;
+
     @Test
     @DisplayName("Try to start a container with invalid input")
     void testEmptyContainer() {
@@ -79,6 +95,48 @@ public class DockerUnitTest {
 
     }
 
+    @Test
+    @DisplayName("Start event waiter is cancelled when the container fails")
+    void testStartFailure() throws Exception {
+        DockerClient dockerClient = mock(DockerClient.class,
+                RETURNS_DEEP_STUBS);
+        ContainerLifecycleMonitor containerLifecycleMonitor = mock(
+                ContainerLifecycleMonitor.class);
+        setField("dockerClient", dockerClient);
+        setField("containerLifecycleMonitor", containerLifecycleMonitor);
+        setField("containerStateCache", new ContainerStateCache(0));
+        when(dockerClient.inspectContainerCmd(anyString()).exec())
+                .thenThrow(new NotFoundException("No such container"));
+        when(containerLifecycleMonitor.isConnected()).thenReturn(true);
+
+        // Name conflict when creating the container
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        when(containerLifecycleMonitor.await("browser-1", STARTED))
+                .thenReturn(created);
+        when(dockerClient.createContainerCmd("image").withName("browser-1")
+                .exec()).thenThrow(new ConflictException("Conflict"));
+        assertThrows(ConflictException.class,
+                () -> dockerService.startAndWaitContainer(
+                        dockerBuilder("image", "browser-1").build()));
+        assertTrue(created.isCancelled());
+
+        // Error when starting the container
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        when(containerLifecycleMonitor.await("browser-2", STARTED))
+                .thenReturn(started);
+        when(dockerClient.startContainerCmd("browser-2").exec())
+                .thenThrow(new NotFoundException("No such container"));
+        assertThrows(NotFoundException.class,
+                () -> dockerService.startAndWaitContainer(
+                        dockerBuilder("image", "browser-2").build()));
+        assertTrue(started.isCancelled());
+    }
+
+    void setField(String fieldName, Object value) throws Exception {
+        FieldSetter.setField(dockerService,
+                DockerService.class.getDeclaredField(fieldName), value);
+    }
+
     @Test
     @DisplayName("Docker server URL when running inside a container")
     void testDockerUrlInContainer() throws IOException {
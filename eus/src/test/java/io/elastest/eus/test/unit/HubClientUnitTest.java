@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.net.ServerSocket;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+
+import io.elastest.eus.service.HubClientService;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for the HTTP client used to proxy requests to hubs.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for hub client Service")
+public class HubClientUnitTest {
+
+    final Logger log = LoggerFactory.getLogger(HubClientUnitTest.class);
+
+    @InjectMocks
+    HubClientService hubClientService;
+
+    WireMockServer wireMockServer;
+
+    String hubUrl;
+
+    @BeforeAll
+    void setup() throws Exception {
+        // Look for free port
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        // Mock server for hub
+        wireMockServer = new WireMockServer(options().port(port));
+        wireMockServer.start();
+        WireMock.configureFor("localhost", wireMockServer.port());
+        hubUrl = "http://localhost:" + port + "/wd/hub";
+
+        // Values injected with Spring properties
+        setField("hubClientMaxTotal", 10);
+        setField("hubClientMaxPerRoute", 2);
+        setField("hubClientConnectTimeoutMs", 5000);
+        setField("hubClientReadTimeoutMs", 5000);
+        setField("hubClientRequestTimeoutMs", 5000);
+        setField("hubClientIdleTimeoutSec", 30);
+
+        // Stubbing service
+        stubFor(get(urlEqualTo("/wd/hub/status")).willReturn(
+                aResponse().withStatus(200).withBody("{\"status\": 0}")));
+
+        hubClientService.postConstruct();
+    }
+
+    void setField(String fieldName, Object value) throws Exception {
+        FieldSetter.setField(hubClientService,
+                HubClientService.class.getDeclaredField(fieldName), value);
+    }
+
+    @Test
+    @DisplayName("Connections are reused across requests")
+    void testConnectionReuse() {
+        for (int i = 0; i < 5; i++) {
+            hubClientService.getRestTemplate().getForObject(hubUrl + "/status",
+                    String.class);
+        }
+
+        PoolStats hubStats = hubClientService.getHubStats(hubUrl);
+        log.debug("Connections to hub {}: {}", hubUrl, hubStats);
+        assertThat(hubStats.getLeased(), equalTo(0));
+        assertThat(hubStats.getAvailable(), equalTo(1));
+    }
+
+    @AfterAll
+    void teardown() throws Exception {
+        hubClientService.teardown();
+        wireMockServer.stop();
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.lang.System.currentTimeMillis;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.elastest.eus.browser.BrowserCatalog;
+import io.elastest.eus.browser.BrowserCatalogListener;
+import io.elastest.eus.docker.DockerContainer;
+import io.elastest.eus.docker.DockerException;
+import io.elastest.eus.docker.HubContainer;
+import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.HubPoolService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.PropertiesService;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for the pool of browser hubs.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for hub pool Service")
+public class HubPoolUnitTest {
+
+    final Logger log = LoggerFactory.getLogger(HubPoolUnitTest.class);
+
+    @InjectMocks
+    HubPoolService hubPoolService;
+
+    @Mock
+    DockerService dockerService;
+
+    @Mock
+    PropertiesService propertiesService;
+
+    @Mock
+    MetricsService metricsService;
+
+    // Test data
+    String key = "chrome_59_LINUX";
+    String timeout = "60";
+
+    @BeforeAll
+    void setup() throws Exception {
+        // Values injected with Spring properties
+        setField("eusContainerPrefix", "eus-");
+        setField("hubContainerSufix", "hub-");
+        setField("hubTimeout", timeout);
+        setField("hubPoolSize", 1);
+        setField("hubPoolKeys", key);
+        setField("hubPoolRefillThreads", 1);
+
+        when(propertiesService.getKeys()).thenReturn(singleton(key));
+        when(propertiesService.getDockerImageFromKey(key)).thenReturn("image");
+        when(dockerService.generateContainerName(anyString()))
+                .thenReturn("hub-1", "hub-2", "hub-3", "hub-4");
+        when(dockerService.getDockerServerIp()).thenReturn("127.0.0.1");
+        when(dockerService.isRunningContainer(anyString())).thenReturn(true);
+
+        hubPoolService.postConstruct();
+    }
+
+    void setField(String fieldName, Object value) throws Exception {
+        setField(hubPoolService, fieldName, value);
+    }
+
+    void setField(HubPoolService service, String fieldName, Object value)
+            throws Exception {
+        FieldSetter.setField(service,
+                HubPoolService.class.getDeclaredField(fieldName), value);
+    }
+
+    void waitForPooledHub() throws InterruptedException {
+        long timeoutMs = currentTimeMillis() + 10000;
+        while (hubPoolService.getPooledHubs(key) == 0
+                && currentTimeMillis() < timeoutMs) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    @DisplayName("Pooled hub is handed out")
+    void testPoolHit() throws Exception {
+        waitForPooledHub();
+        long hits = hubPoolService.getPoolHits();
+
+        HubContainer hub = hubPoolService.getHub(key, timeout);
+        log.debug("Hub from pool: {}", hub);
+
+        assertThat(hubPoolService.getPoolHits(), equalTo(hits + 1));
+    }
+
+    @Test
+    @DisplayName("Live sessions do not use pooled hubs")
+    void testPoolMiss() throws Exception {
+        long misses = hubPoolService.getPoolMisses();
+
+        hubPoolService.getHub(key, "0");
+
+        assertThat(hubPoolService.getPoolMisses(), equalTo(misses + 1));
+    }
+
+    @Test
+    @DisplayName("Hub which fails to start is removed")
+    void testStartFailure() throws Exception {
+        ArgumentCaptor<DockerContainer> container = ArgumentCaptor
+                .forClass(DockerContainer.class);
+        doThrow(new DockerException("Not started")).when(dockerService)
+                .startAndWaitContainer(
+                        argThat(c -> c.getImageId().equals("broken-image")));
+
+        assertThrows(DockerException.class,
+                () -> hubPoolService.startHub("broken-image", timeout));
+
+        verify(dockerService, atLeastOnce())
+                .startAndWaitContainer(container.capture());
+        String containerName = container.getAllValues().stream()
+                .filter(c -> c.getImageId().equals("broken-image"))
+                .findFirst().get().getContainerName();
+        verify(dockerService).stopAndRemoveContainer(containerName);
+    }
+
+    @Test
+    @DisplayName("Pool is refilled on misses after failed starts")
+    void testRefillAfterFailure() throws Exception {
+        // Own service, since the pool must be empty from the beginning
+        DockerService docker = mock(DockerService.class);
+        PropertiesService properties = mock(PropertiesService.class);
+        HubPoolService service = new HubPoolService(docker, properties,
+                metricsService);
+        setField(service, "eusContainerPrefix", "eus-");
+        setField(service, "hubContainerSufix", "hub-");
+        setField(service, "hubTimeout", timeout);
+        setField(service, "hubPoolSize", 1);
+        setField(service, "hubPoolKeys", key);
+        setField(service, "hubPoolRefillThreads", 1);
+        when(properties.getKeys()).thenReturn(singleton(key));
+        when(properties.getDockerImageFromKey(key)).thenReturn("image");
+        when(docker.generateContainerName(anyString())).thenReturn("hub-1",
+                "hub-2", "hub-3");
+        when(docker.getDockerServerIp()).thenReturn("127.0.0.1");
+        doThrow(new DockerException("Docker not available")).doNothing()
+                .when(docker).startAndWaitContainer(any());
+
+        try {
+            // The first refill fails
+            service.postConstruct();
+            verify(docker, timeout(5000)).stopAndRemoveContainer("hub-1");
+            Thread.sleep(100);
+            assertThat(service.getPooledHubs(key), equalTo(0));
+
+            // A miss starts its own hub, and refills the pool
+            assertThat(service.getHub(key, timeout), notNullValue());
+            long timeoutMs = currentTimeMillis() + 10000;
+            while (service.getPooledHubs(key) == 0
+                    && currentTimeMillis() < timeoutMs) {
+                Thread.sleep(50);
+            }
+            assertThat(service.getPooledHubs(key), equalTo(1));
+        } finally {
+            service.teardown();
+        }
+    }
+
+    @Test
+    @DisplayName("Pools are updated when the browser catalog is reloaded")
+    void testCatalogReload() throws Exception {
+        ArgumentCaptor<BrowserCatalogListener> listener = ArgumentCaptor
+                .forClass(BrowserCatalogListener.class);
+        verify(propertiesService).addCatalogListener(listener.capture());
+        waitForPooledHub();
+
+        // Other image for the same browser: the pool is replaced. Its hubs
+        // are removed in background, so neither the reload nor new sessions
+        // wait for them
+        CountDownLatch removing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            removing.countDown();
+            release.await(5, SECONDS);
+            return null;
+        }).when(dockerService).stopAndRemoveContainer(anyString());
+        try {
+            assertTimeoutPreemptively(ofSeconds(2), () -> {
+                listener.getValue().onCatalogReload(new BrowserCatalog(
+                        singletonMap(key, "new-image"), "_"));
+                assertTrue(removing.await(1, SECONDS));
+                hubPoolService.getHub(key, "0");
+            });
+        } finally {
+            release.countDown();
+            doNothing().when(dockerService)
+                    .stopAndRemoveContainer(anyString());
+        }
+        verify(dockerService, timeout(5000)).startAndWaitContainer(
+                argThat(c -> c.getImageId().equals("new-image")));
+        waitForPooledHub();
+        assertThat(hubPoolService.getPooledHubs(key), equalTo(1));
+
+        // Browser removed from the catalog: the pool is removed
+        listener.getValue().onCatalogReload(new BrowserCatalog(
+                singletonMap("firefox_54_LINUX", "firefox"), "_"));
+        assertThat(hubPoolService.getPooledHubs(key), equalTo(0));
+
+        // Back to the original catalog
+        listener.getValue().onCatalogReload(
+                new BrowserCatalog(singletonMap(key, "image"), "_"));
+        waitForPooledHub();
+        assertThat(hubPoolService.getPooledHubs(key), equalTo(1));
+    }
+
+    @AfterAll
+    void teardown() {
+        hubPoolService.teardown();
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.docker.DockerContainer.dockerBuilder;
+import static java.lang.System.currentTimeMillis;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.core.command.PullImageResultCallback;
+
+import io.elastest.eus.browser.BrowserCatalog;
+import io.elastest.eus.browser.BrowserCatalogListener;
+import io.elastest.eus.docker.ContainerStateCache;
+import io.elastest.eus.docker.DockerException;
+import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.ImagePrefetchService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.PropertiesService;
+import io.elastest.eus.service.ShellService;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for prefetch and pull of Docker images.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@Tag("unit")
+@DisplayName("Unit tests for prefetch of Docker images")
+public class ImagePrefetchUnitTest {
+
+    static final String IMAGE = "elastest/eus-browser-chrome:59";
+
+    @Mock
+    ShellService shellService;
+
+    @Mock
+    MetricsService metricsService;
+
+    @Mock
+    PropertiesService propertiesService;
+
+    DockerClient dockerClient = mock(DockerClient.class, RETURNS_DEEP_STUBS);
+    DockerService dockerService;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dockerService = new DockerService(shellService, metricsService);
+        setField(dockerService, DockerService.class, "dockerClient",
+                dockerClient);
+        setField(dockerService, DockerService.class, "containerStateCache",
+                new ContainerStateCache(0));
+    }
+
+    void setField(Object target, Class<?> type, String fieldName,
+            Object value) throws Exception {
+        FieldSetter.setField(target, type.getDeclaredField(fieldName), value);
+    }
+
+    ImagePrefetchService prefetchService(DockerService docker,
+            boolean enabled) throws Exception {
+        ImagePrefetchService prefetchService = new ImagePrefetchService(docker,
+                propertiesService);
+        Class<?> type = ImagePrefetchService.class;
+        setField(prefetchService, type, "dockerPrefetchEnabled", enabled);
+        setField(prefetchService, type, "dockerPrefetchThreads", 2);
+        setField(prefetchService, type, "noVncImageId", "elastest/eus-novnc");
+        setField(prefetchService, type, "dockerComposeUiImageId",
+                "elastest/docker-compose-ui");
+        return prefetchService;
+    }
+
+    @Test
+    @DisplayName("Concurrent pulls of the same image are done once")
+    void testSinglePull() throws Exception {
+        CountDownLatch pulling = new CountDownLatch(1);
+        PullImageResultCallback callback = mock(PullImageResultCallback.class);
+        doAnswer(invocation -> pulling.await(5, SECONDS)).when(callback)
+                .awaitSuccess();
+        when(dockerClient.inspectImageCmd(IMAGE).exec())
+                .thenThrow(new NotFoundException("No such image"));
+        when(dockerClient.pullImageCmd(IMAGE).exec(any()))
+                .thenReturn(callback);
+
+        ExecutorService executor = newFixedThreadPool(2);
+        try {
+            Future<?> first = executor
+                    .submit(() -> dockerService.pullImageIfNecessary(IMAGE));
+            Future<?> second = executor
+                    .submit(() -> dockerService.pullImageIfNecessary(IMAGE));
+            Thread.sleep(200);
+            pulling.countDown();
+            first.get(5, SECONDS);
+            second.get(5, SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(dockerClient.pullImageCmd(IMAGE)).exec(any());
+
+        // Pulled images are cached
+        assertTrue(dockerService.existsImage(IMAGE));
+        verify(dockerClient.pullImageCmd(IMAGE)).exec(any());
+    }
+
+    @Test
+    @DisplayName("Cached image is checked again after a failed container creation")
+    void testInvalidation() throws Exception {
+        when(dockerClient.inspectContainerCmd(anyString()).exec())
+                .thenThrow(new NotFoundException("No such container"));
+        when(dockerClient.createContainerCmd(IMAGE).withName("browser-1")
+                .exec()).thenThrow(new NotFoundException("No such image"));
+
+        dockerService.pullImageIfNecessary(IMAGE);
+        dockerService.pullImageIfNecessary(IMAGE);
+        verify(dockerClient.inspectImageCmd(IMAGE)).exec();
+
+        assertThrows(NotFoundException.class,
+                () -> dockerService.startAndWaitContainer(
+                        dockerBuilder(IMAGE, "browser-1").build()));
+        dockerService.pullImageIfNecessary(IMAGE);
+        verify(dockerClient.inspectImageCmd(IMAGE), times(2)).exec();
+    }
+
+    @Test
+    @DisplayName("Images are prefetched in background, failures included")
+    void testPrefetch() throws Exception {
+        DockerService docker = mock(DockerService.class);
+        when(propertiesService.getDockerImages())
+                .thenReturn(new LinkedHashSet<>(asList(IMAGE, "other")));
+        doThrow(new DockerException("Pull failed")).when(docker)
+                .pullImageIfNecessary("other");
+
+        ImagePrefetchService prefetchService = prefetchService(docker, true);
+        prefetchService.postConstruct();
+        try {
+            verify(docker, timeout(5000)).pullImageIfNecessary(IMAGE);
+            verify(docker, timeout(5000))
+                    .pullImageIfNecessary("elastest/eus-novnc");
+            verify(docker, timeout(5000))
+                    .pullImageIfNecessary("elastest/docker-compose-ui");
+
+            long timeoutMs = currentTimeMillis() + 5000;
+            while (!prefetchService.isPrefetchFinished()
+                    && currentTimeMillis() < timeoutMs) {
+                Thread.sleep(50);
+            }
+            assertEquals(4, prefetchService.getTotalImages());
+            assertEquals(3, prefetchService.getPrefetchedImages());
+            assertEquals(1, prefetchService.getFailedImages());
+        } finally {
+            prefetchService.teardown();
+        }
+    }
+
+    @Test
+    @DisplayName("Images of new browsers are prefetched after a reload")
+    void testCatalogReload() throws Exception {
+        DockerService docker = mock(DockerService.class);
+        when(propertiesService.getDockerImages())
+                .thenReturn(new LinkedHashSet<>(asList(IMAGE)));
+        ImagePrefetchService prefetchService = prefetchService(docker, true);
+        prefetchService.postConstruct();
+        try {
+            ArgumentCaptor<BrowserCatalogListener> listener = ArgumentCaptor
+                    .forClass(BrowserCatalogListener.class);
+            verify(propertiesService).addCatalogListener(listener.capture());
+
+            Map<String, String> entries = new HashMap<>();
+            entries.put("chrome_59_LINUX", IMAGE);
+            entries.put("chrome_60_LINUX", "elastest/eus-browser-chrome:60");
+            listener.getValue()
+                    .onCatalogReload(new BrowserCatalog(entries, "_"));
+
+            verify(docker, timeout(5000))
+                    .pullImageIfNecessary("elastest/eus-browser-chrome:60");
+            verify(docker).pullImageIfNecessary(IMAGE);
+            assertEquals(4, prefetchService.getTotalImages());
+        } finally {
+            prefetchService.teardown();
+        }
+    }
+
+    @Test
+    @DisplayName("Prefetch is disabled")
+    void testDisabled() throws Exception {
+        DockerService docker = mock(DockerService.class);
+        ImagePrefetchService prefetchService = prefetchService(docker, false);
+        prefetchService.postConstruct();
+
+        assertEquals(0, prefetchService.getTotalImages());
+        verify(docker, never()).pullImageIfNecessary(anyString());
+    }
+
+}
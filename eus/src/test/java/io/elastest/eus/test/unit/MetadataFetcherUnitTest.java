@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.recording.MetadataFetcher;
+
+/**
+ * Tests for concurrent fetch of recording metadata.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for metadata fetcher")
+public class MetadataFetcherUnitTest {
+
+    MetadataFetcher metadataFetcher;
+
+    @AfterEach
+    void teardown() {
+        metadataFetcher.close();
+    }
+
+    Map<String, Long> files(int count, long modificationTime) {
+        Map<String, Long> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            files.put("file-" + i + ".eus", modificationTime);
+        }
+        return files;
+    }
+
+    @Test
+    @DisplayName("Files are fetched concurrently and cached")
+    void testConcurrentFetch() throws IOException {
+        // Each load waits until all of them are running
+        CountDownLatch running = new CountDownLatch(4);
+        AtomicInteger loads = new AtomicInteger();
+        metadataFetcher = new MetadataFetcher(fileName -> {
+            loads.incrementAndGet();
+            running.countDown();
+            try {
+                running.await(5, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return fileName;
+        }, 4, 5000);
+
+        List<String> content = new ArrayList<>();
+        assertEquals(4, metadataFetcher.fetch(files(4, 1), content::add));
+        assertEquals(0, running.getCount());
+        assertTrue(content.contains("file-3.eus"));
+
+        // Only the modified file is fetched again
+        Map<String, Long> files = files(4, 1);
+        files.put("file-0.eus", 2L);
+        content.clear();
+        assertEquals(4, metadataFetcher.fetch(files, content::add));
+        assertEquals(4, content.size());
+        assertEquals(5, loads.get());
+        assertEquals(3, metadataFetcher.getHits());
+
+        // Files not listed anymore are evicted from the cache
+        metadataFetcher.fetch(files(2, 1), content::add);
+        assertEquals(2, metadataFetcher.size());
+    }
+
+    @Test
+    @DisplayName("Failed and timed out files are skipped")
+    void testFailures() throws IOException {
+        metadataFetcher = new MetadataFetcher(fileName -> {
+            if (fileName.equals("file-0.eus")) {
+                throw new IOException("Not available");
+            }
+            if (fileName.equals("file-1.eus")) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return fileName;
+        }, 2, 500);
+
+        List<String> content = new ArrayList<>();
+        assertEquals(1, metadataFetcher.fetch(files(3, 1), content::add));
+        assertEquals("file-2.eus", content.get(0));
+        assertEquals(2, metadataFetcher.getFailures());
+    }
+
+    @Test
+    @DisplayName("Interrupted fetch is reported to the caller")
+    void testInterrupted() {
+        metadataFetcher = new MetadataFetcher(fileName -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return fileName;
+        }, 1, 5000);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class,
+                    () -> metadataFetcher.fetch(files(1, 1), fileName -> {
+                    }));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+}
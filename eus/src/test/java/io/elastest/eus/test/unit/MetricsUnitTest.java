@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.service.MetricsService.SESSION_CREATION;
+import static io.elastest.eus.service.MetricsService.WEBDRIVER_COMMAND;
+import static io.elastest.eus.service.MetricsService.WEBDRIVER_OVERHEAD;
+import static io.elastest.eus.service.MetricsService.WEBDRIVER_RESPONSE_SIZE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.service.MetricsService;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.Timer.Sample;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Tests for metrics service.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for metrics service")
+public class MetricsUnitTest {
+
+    @Test
+    @DisplayName("Session creation timer is tagged and scraped")
+    void testSessionCreationTimer() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(
+                PrometheusConfig.DEFAULT);
+        MetricsService metricsService = new MetricsService(registry);
+
+        Sample sample = metricsService.startTimer();
+        metricsService.stopSessionCreationTimer(sample, "chrome", null, true);
+
+        Timer timer = registry.get(SESSION_CREATION).tag("browser", "chrome")
+                .tag("version", "unknown").tag("outcome", "success").timer();
+        assertEquals(1, timer.count());
+        assertTrue(metricsService.scrape()
+                .contains("eus_session_creation_seconds_bucket"));
+    }
+
+    @Test
+    @DisplayName("WebDriver command overhead excludes hub time")
+    void testWebDriverCommandTimer() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(
+                PrometheusConfig.DEFAULT);
+        MetricsService metricsService = new MetricsService(registry);
+        Tags tags = metricsService.webDriverCommandTags(
+                "/session/{sessionId}/url", "POST", "chrome", "59");
+
+        Sample commandSample = metricsService.startTimer();
+        Sample hubSample = metricsService.startTimer();
+        long hubNanos = metricsService.stopWebDriverHubTimer(hubSample, tags);
+        metricsService.stopWebDriverCommandTimer(commandSample, tags, hubNanos,
+                10, 20);
+
+        Timer command = registry.get(WEBDRIVER_COMMAND).tags(tags).timer();
+        Timer overhead = registry.get(WEBDRIVER_OVERHEAD).tags(tags).timer();
+        assertEquals(1, overhead.count());
+        assertTrue(overhead.totalTime(NANOSECONDS) <= command
+                .totalTime(NANOSECONDS));
+        assertEquals(20, registry.get(WEBDRIVER_RESPONSE_SIZE).tags(tags)
+                .summary().totalAmount());
+    }
+
+}
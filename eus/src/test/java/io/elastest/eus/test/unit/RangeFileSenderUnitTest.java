@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.Arrays.copyOfRange;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.elastest.eus.recording.RangeFileSender;
+
+/**
+ * Tests for file sender with byte ranges and conditional requests.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for range file sender")
+public class RangeFileSenderUnitTest {
+
+    RangeFileSender rangeFileSender = new RangeFileSender();
+    byte[] content = new byte[1000];
+    Path file;
+
+    @BeforeAll
+    void setup() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = Files.createTempFile("recording", ".mp4");
+        Files.write(file, content);
+    }
+
+    MockHttpServletResponse send(String header, String value)
+            throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                "/recording/sessionId");
+        if (header != null) {
+            request.addHeader(header, value);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        rangeFileSender.send(file, "video/mp4", request, response);
+        return response;
+    }
+
+    @ParameterizedTest(name = "Range {1} -> {2}")
+    @CsvSource({ ", , 200, 0, 999", "Range, bytes=100-199, 206, 100, 199",
+            "Range, bytes=900-, 206, 900, 999",
+            "Range, bytes=-10, 206, 990, 999",
+            "Range, bytes=990-5000, 206, 990, 999",
+            "Range, 'bytes=0-1,5-6', 200, 0, 999",
+            "Range, bytes=1000-, 416, 0, -1" })
+    @DisplayName("Byte ranges")
+    void testRange(String header, String value, int status, int start,
+            int end) throws IOException {
+        MockHttpServletResponse response = send(header, value);
+        assertEquals(status, response.getStatus());
+        assertArrayEquals(copyOfRange(content, start, end + 1),
+                response.getContentAsByteArray());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @CsvSource({ "If-None-Match, 304", "If-Modified-Since, 304",
+            "If-Range, 206" })
+    @DisplayName("Conditional requests")
+    void testConditional(String header, int status) throws IOException {
+        MockHttpServletResponse first = send(null, null);
+        String validator = header.equals("If-Modified-Since")
+                ? first.getHeader("Last-Modified")
+                : first.getHeader("ETag");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                "/recording/sessionId");
+        request.addHeader(header, validator);
+        request.addHeader("Range", "bytes=0-9");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        rangeFileSender.send(file, "video/mp4", request, response);
+        assertEquals(status, response.getStatus());
+    }
+
+    @AfterAll
+    void teardown() throws IOException {
+        Files.delete(file);
+    }
+
+}
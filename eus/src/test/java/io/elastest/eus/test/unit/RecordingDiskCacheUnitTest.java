@@ -0,0 +1,152 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.recording.RecordingDiskCache;
+import io.elastest.eus.recording.RecordingDiskCache.CachedFile;
+
+/**
+ * Tests for bounded disk cache of recordings.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for recording disk cache")
+public class RecordingDiskCacheUnitTest {
+
+    Path folder;
+    RecordingDiskCache recordingCache;
+
+    @BeforeEach
+    void setup() throws IOException {
+        folder = Files.createTempDirectory("eus-cache");
+        recordingCache = new RecordingDiskCache(folder, 250);
+        recordingCache.load();
+    }
+
+    Path get(String fileName, int size) throws IOException {
+        return recordingCache.get(fileName,
+                target -> Files.write(target, new byte[size]));
+    }
+
+    @Test
+    @DisplayName("Least recently used recordings are evicted")
+    void testEviction() throws IOException {
+        get("r1.mp4", 100);
+        get("r2.mp4", 100);
+        get("r1.mp4", 100);
+        get("r3.mp4", 100);
+
+        assertFalse(Files.exists(folder.resolve("r2.mp4")));
+        assertTrue(Files.exists(folder.resolve("r1.mp4")));
+        assertEquals(200, recordingCache.getSizeBytes());
+        assertEquals(1, recordingCache.getEvictions());
+        assertEquals(1, recordingCache.getHits());
+
+        // Files already present are registered when loading
+        RecordingDiskCache reloaded = new RecordingDiskCache(folder, 250);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertEquals(200, reloaded.getSizeBytes());
+    }
+
+    @Test
+    @DisplayName("Concurrent requests of the same recording are fetched once")
+    void testSingleFlight() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch fetching = new CountDownLatch(1);
+        ExecutorService executor = newFixedThreadPool(4);
+        try {
+            List<Future<Path>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> recordingCache
+                        .get("r1.mp4", target -> {
+                            fetches.incrementAndGet();
+                            try {
+                                fetching.await(5, SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            Files.write(target, new byte[10]);
+                        })));
+            }
+            Thread.sleep(200);
+            fetching.countDown();
+            for (Future<Path> result : results) {
+                assertEquals(folder.resolve("r1.mp4"), result.get(5, SECONDS));
+            }
+            assertEquals(1, fetches.get());
+            // Requests waiting for the fetch are not hits
+            assertEquals(4, recordingCache.getMisses());
+            assertEquals(0, recordingCache.getHits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Opened recordings can be read after being evicted")
+    void testEvictionWhileOpen() throws IOException {
+        try (CachedFile cached = recordingCache.open("r1.mp4",
+                target -> Files.write(target, new byte[100]))) {
+            get("r2.mp4", 100);
+            get("r3.mp4", 100);
+            assertFalse(Files.exists(folder.resolve("r1.mp4")));
+
+            ByteBuffer buffer = ByteBuffer.allocate(200);
+            while (cached.getChannel().read(buffer) > 0) {
+                // Read until the end of file
+            }
+            assertEquals(100, buffer.position());
+        }
+
+        // Evicted recordings are fetched again
+        get("r1.mp4", 100);
+        assertEquals(4, recordingCache.getMisses());
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.recording.RecordingQuery.SortField.BROWSER;
+import static io.elastest.eus.recording.RecordingQuery.SortField.CREATIONTIME;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import io.elastest.eus.recording.RecordingIndex;
+import io.elastest.eus.recording.RecordingIndex.Page;
+import io.elastest.eus.recording.RecordingMetadata;
+import io.elastest.eus.recording.RecordingQuery;
+import io.elastest.eus.recording.RecordingQuery.SortField;
+
+/**
+ * Tests for in-memory recording index.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for recording index")
+public class RecordingIndexUnitTest {
+
+    RecordingIndex recordingIndex = new RecordingIndex();
+
+    @BeforeAll
+    void setup() {
+        recordingIndex.put(recording("r1", "chrome", "62", 1000));
+        recordingIndex.put(recording("r2", "firefox", "57", 2000));
+        recordingIndex.put(recording("r3", "chrome", "63", 3000));
+        recordingIndex.put(recording("r4", "chrome", "63", 4000));
+        recordingIndex.put(recording("r5", "firefox", "57", 5000));
+        recordingIndex.remove("r5");
+    }
+
+    RecordingMetadata recording(String id, String browser, String version,
+            long timestamp) {
+        return new RecordingMetadata(id, browser, version, null, timestamp,
+                "{\"id\":\"" + id + "\"}");
+    }
+
+    List<String> ids(String browser, String version, long from, long to,
+            SortField sort, boolean ascending, int page, int size) {
+        Page result = recordingIndex.query(new RecordingQuery(browser,
+                version, from, to, sort, ascending, page, size));
+        return result.getRecordings().stream().map(RecordingMetadata::getId)
+                .collect(toList());
+    }
+
+    @Test
+    @DisplayName("Filter by browser and version")
+    void testFilter() {
+        assertEquals(asList("r4", "r3", "r1"),
+                ids("Chrome", null, 0, Long.MAX_VALUE, CREATIONTIME, false, 0,
+                        10));
+        assertEquals(asList("r3", "r4"), ids("chrome", "63", 0,
+                Long.MAX_VALUE, CREATIONTIME, true, 0, 10));
+    }
+
+    @Test
+    @DisplayName("Time range, sorting and paging")
+    void testRangeAndPaging() {
+        assertEquals(asList("r2", "r3"), ids(null, null, 2000, 3000,
+                CREATIONTIME, true, 0, 10));
+        assertEquals(asList("r1", "r3", "r4", "r2"), ids(null, null, 0,
+                Long.MAX_VALUE, BROWSER, true, 0, 10));
+
+        Page page = recordingIndex.query(new RecordingQuery(null, null, 0,
+                Long.MAX_VALUE, CREATIONTIME, true, 1, 3));
+        assertEquals(4, page.getTotal());
+        assertEquals(1, page.getRecordings().size());
+        assertEquals("r4", page.getRecordings().get(0).getId());
+    }
+
+}
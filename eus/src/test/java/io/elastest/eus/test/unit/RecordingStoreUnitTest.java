@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import io.elastest.eus.EusException;
+import io.elastest.eus.service.AlluxioService;
+import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.RecordingService;
+import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.test.util.MockitoExtension;
+import okio.Buffer;
+import okio.ByteString;
+import okio.Source;
+
+/**
+ * Tests for storage of recordings in Alluxio (checksum verification).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@Tag("unit")
+@DisplayName("Unit tests for storage of recordings in Alluxio")
+public class RecordingStoreUnitTest {
+
+    static final String CONTAINER = "novnc-1";
+    static final String RECORDING = "session-1.mp4";
+
+    @InjectMocks
+    RecordingService recordingService;
+
+    @Mock
+    DockerService dockerService;
+
+    @Mock
+    JsonService jsonService;
+
+    @Mock
+    AlluxioService alluxioService;
+
+    @Mock
+    MetricsService metricsService;
+
+    Path cacheFolder;
+    SessionInfo sessionInfo = new SessionInfo();
+    byte[] content = "recording content".getBytes();
+
+    @BeforeEach
+    void setup() throws Exception {
+        // Values injected with Spring properties
+        cacheFolder = Files.createTempDirectory("eus-cache");
+        setField("edmAlluxioUrl", "http://alluxio:19999/");
+        setField("registryRecordingExtension", ".mp4");
+        setField("registryMetadataExtension", ".eus");
+        setField("registryCacheFolder", cacheFolder.toString());
+        setField("registryCacheMaxBytes", 1000L);
+        setField("novncScript", "script.sh");
+        setField("uploadThreads", 1);
+        setField("uploadQueueSize", 10);
+        setField("uploadMaxAttempts", 1);
+        setField("uploadRetryDelayMs", 1L);
+        invoke("postConstruct");
+
+        sessionInfo.setSessionId("session-1");
+        sessionInfo.setVncContainerName(CONTAINER);
+
+        // The uploaded content is read from the source (exactly its length,
+        // as done when streaming it to Alluxio)
+        when(dockerService.getFileFromContainer(CONTAINER, RECORDING))
+                .thenReturn(new ByteArrayInputStream(tar(content)));
+        when(alluxioService.writeFile(eq(RECORDING), any(Source.class),
+                anyLong())).thenAnswer(invocation -> {
+                    Source source = invocation.getArgument(1);
+                    long size = invocation.getArgument(2);
+                    Buffer buffer = new Buffer();
+                    while (buffer.size() < size && source.read(buffer,
+                            size - buffer.size()) != -1) {
+                        // Reading until the length of the file
+                    }
+                    return true;
+                });
+    }
+
+    void setField(String fieldName, Object value) throws Exception {
+        FieldSetter.setField(recordingService,
+                RecordingService.class.getDeclaredField(fieldName), value);
+    }
+
+    void invoke(String methodName) throws Exception {
+        Method method = RecordingService.class.getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        method.invoke(recordingService);
+    }
+
+    byte[] tar(byte[] fileContent) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+            TarArchiveEntry entry = new TarArchiveEntry(RECORDING);
+            entry.setSize(fileContent.length);
+            tar.putArchiveEntry(entry);
+            tar.write(fileContent);
+            tar.closeArchiveEntry();
+        }
+        return out.toByteArray();
+    }
+
+    void mockChecksum(byte[] fileContent) throws Exception {
+        String checksum = ByteString.of(
+                MessageDigest.getInstance("SHA-256").digest(fileContent))
+                .hex();
+        when(dockerService.execCommand(CONTAINER, true, "sha256sum",
+                RECORDING)).thenReturn(checksum + "  " + RECORDING + "\r\n");
+    }
+
+    @Test
+    @DisplayName("Recording with the right checksum is kept")
+    void testChecksum() throws Exception {
+        mockChecksum(content);
+        recordingService.storeRecording(sessionInfo);
+        verify(alluxioService, never()).deleteFile(RECORDING);
+    }
+
+    @Test
+    @DisplayName("Recording with a wrong checksum is deleted")
+    void testWrongChecksum() throws Exception {
+        mockChecksum("other content".getBytes());
+        assertThrows(EusException.class,
+                () -> recordingService.storeRecording(sessionInfo));
+        verify(alluxioService).deleteFile(RECORDING);
+    }
+
+    @Test
+    @DisplayName("Partial upload is deleted")
+    void testPartialUpload() throws Exception {
+        mockChecksum(content);
+        when(alluxioService.writeFile(eq(RECORDING), any(Source.class),
+                anyLong())).thenThrow(new IOException("Connection reset"));
+        assertThrows(IOException.class,
+                () -> recordingService.storeRecording(sessionInfo));
+        verify(alluxioService).deleteFile(RECORDING);
+    }
+
+    @AfterEach
+    void teardown() throws Exception {
+        invoke("preDestroy");
+        FileUtils.deleteDirectory(cacheFolder.toFile());
+    }
+
+}
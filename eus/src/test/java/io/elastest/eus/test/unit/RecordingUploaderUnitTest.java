@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.recording.RecordingUploader;
+import io.elastest.eus.recording.RecordingUploader.Upload;
+
+/**
+ * Tests for recording uploader (retries and concurrency limit).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for recording uploader")
+public class RecordingUploaderUnitTest {
+
+    RecordingUploader recordingUploader = new RecordingUploader(2, 10, 3, 1);
+
+    @AfterEach
+    void teardown() {
+        recordingUploader.close();
+    }
+
+    @Test
+    @DisplayName("Failed attempts are retried")
+    void testRetries() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Upload upload = recordingUploader.upload("recording.mp4", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("Connection reset");
+            }
+            return 100;
+        }).get();
+
+        assertEquals(100, upload.getBytes());
+        assertEquals(3, upload.getAttempts());
+        assertEquals(2, recordingUploader.getRetries());
+        assertEquals(100, recordingUploader.getUploadedBytes());
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> recordingUploader.upload("other.mp4", () -> {
+                    throw new IOException("Connection reset");
+                }).get());
+        assertTrue(e.getCause().getCause() instanceof IOException);
+        assertEquals(1, recordingUploader.getFailures());
+    }
+
+    @Test
+    @DisplayName("Concurrent uploads are limited")
+    void testConcurrency() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Upload>> uploads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            uploads.add(recordingUploader.upload("recording-" + i, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(),
+                        Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return 1;
+            }));
+        }
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]))
+                .get();
+
+        assertEquals(2, maxRunning.get());
+        assertEquals(6, recordingUploader.getUploads());
+    }
+
+    @Test
+    @DisplayName("Uploads rejected when the queue is full are failures")
+    void testRejected() throws Exception {
+        RecordingUploader fullUploader = new RecordingUploader(1, 1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // One upload running and another one queued
+            for (int i = 0; i < 2; i++) {
+                fullUploader.upload("recording-" + i, () -> {
+                    try {
+                        release.await(5, SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 1;
+                });
+            }
+
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> fullUploader.upload("recording-2", () -> 1).get());
+            assertTrue(e.getCause().getCause() instanceof IOException);
+            assertEquals(1, fullUploader.getFailures());
+        } finally {
+            release.countDown();
+            fullUploader.close();
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static io.elastest.eus.session.RevisionLog.RECORDINGS;
+import static io.elastest.eus.session.RevisionLog.SESSIONS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.RevisionLog.Changes;
+
+/**
+ * Tests for revision log (snapshot/delta WebSocket protocol).
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for revision log")
+public class RevisionLogUnitTest {
+
+    @Test
+    @DisplayName("Changes since a known revision")
+    void testDelta() {
+        RevisionLog revisionLog = new RevisionLog(10);
+        revisionLog.put(SESSIONS, "s1", "{\"id\":\"s1\"}");
+        long revision = revisionLog.put(SESSIONS, "s2", "{\"id\":\"s2\"}");
+        revisionLog.put(RECORDINGS, "r1", "{\"id\":\"r1\"}");
+        revisionLog.remove(SESSIONS, "s1");
+        revisionLog.put(SESSIONS, "s2", "{\"id\":\"s2\",\"v\":2}");
+
+        Changes changes = revisionLog.changesSince(revisionLog.getEpoch(),
+                revision);
+        assertFalse(changes.isSnapshot());
+        assertEquals(5, changes.getRevision());
+        assertEquals(singletonList("{\"id\":\"s2\",\"v\":2}"),
+                changes.getUpdated(SESSIONS));
+        assertEquals(singletonList("{\"id\":\"r1\"}"),
+                changes.getUpdated(RECORDINGS));
+        assertEquals(singletonList("s1"), changes.getRemoved(SESSIONS));
+        assertEquals(-1, revisionLog.remove(SESSIONS, "s1"));
+    }
+
+    @Test
+    @DisplayName("Snapshot when revision is not available")
+    void testSnapshot() {
+        RevisionLog revisionLog = new RevisionLog(1);
+        revisionLog.put(SESSIONS, "s1", "{\"id\":\"s1\"}");
+        revisionLog.put(SESSIONS, "s2", "{\"id\":\"s2\"}");
+        revisionLog.put(SESSIONS, "s3", "{\"id\":\"s3\"}");
+        revisionLog.remove(SESSIONS, "s1");
+        revisionLog.remove(SESSIONS, "s2");
+
+        // Tombstone of s1 has been pruned
+        long epoch = revisionLog.getEpoch();
+        assertTrue(revisionLog.changesSince(epoch, 3).isSnapshot());
+        assertFalse(revisionLog.changesSince(epoch, 4).isSnapshot());
+        assertTrue(revisionLog.changesSince(epoch + 1, 4).isSnapshot());
+
+        Changes snapshot = revisionLog.changesSince(epoch, 0);
+        assertTrue(snapshot.isSnapshot());
+        assertEquals(asList("{\"id\":\"s3\"}"),
+                snapshot.getUpdated(SESSIONS));
+        assertTrue(snapshot.getRemoved(SESSIONS).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Replace only entries still present")
+    void testReplace() {
+        RevisionLog revisionLog = new RevisionLog(10);
+        revisionLog.put(SESSIONS, "s1", "{\"id\":\"s1\"}");
+        long revision = revisionLog.getRevision();
+
+        assertEquals(revision + 1, revisionLog.replace(SESSIONS, "s1",
+                "{\"id\":\"s1\",\"status\":\"stopping\"}"));
+        assertEquals(-1, revisionLog.replace(SESSIONS, "s2", "{}"));
+        revisionLog.remove(SESSIONS, "s1");
+        assertEquals(-1, revisionLog.replace(SESSIONS, "s1", "{}"));
+
+        Changes changes = revisionLog.changesSince(revisionLog.getEpoch(),
+                revision);
+        assertTrue(changes.getUpdated(SESSIONS).isEmpty());
+        assertEquals(singletonList("s1"), changes.getRemoved(SESSIONS));
+        assertEquals(3, revisionLog.getRevision());
+    }
+
+}
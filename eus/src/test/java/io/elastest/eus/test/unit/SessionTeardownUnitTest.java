@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.RecordingService;
+import io.elastest.eus.service.SessionService;
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for asynchronous session teardown.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for session teardown")
+public class SessionTeardownUnitTest {
+
+    @InjectMocks
+    SessionService sessionService;
+
+    @Mock
+    DockerService dockerService;
+
+    @Mock
+    JsonService jsonService;
+
+    @Mock
+    RecordingService recordingService;
+
+    @Mock
+    MetricsService metricsService;
+
+    @Mock
+    RevisionLog revisionLog;
+
+    @BeforeAll
+    void setup() throws Exception {
+        // Values injected with Spring properties
+        setField("hubTimeout", "60");
+        setField("teardownThreads", 1);
+        setField("teardownQueueSize", 10);
+        setField("teardownShutdownTimeoutSec", 5);
+        setField("timeoutWheelTickMs", 100L);
+        setField("timeoutWheelSize", 64);
+        setField("wsClientSendThreads", 1);
+
+        sessionService.postConstruct();
+    }
+
+    void setField(String fieldName, Object value) throws Exception {
+        FieldSetter.setField(sessionService,
+                SessionService.class.getDeclaredField(fieldName), value);
+    }
+
+    @Test
+    @DisplayName("Delete session returns before recording and containers are finalized")
+    void testAsyncTeardown() throws Exception {
+        CountDownLatch recordingLatch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            recordingLatch.await(5, SECONDS);
+            return null;
+        }).when(recordingService).stopRecording(any());
+
+        SessionInfo sessionInfo = new SessionInfo();
+        sessionInfo.setSessionId("session-1");
+        sessionInfo.setLiveSession(true);
+        sessionInfo.setHubContainerName("hub-1");
+        sessionInfo.setVncContainerName("novnc-1");
+        sessionService.putSession("session-1", sessionInfo);
+
+        sessionService.deleteSession(sessionInfo, false);
+
+        assertFalse(sessionService.getSession("session-1").isPresent());
+        verify(dockerService, never()).stopAndRemoveContainer("hub-1");
+
+        recordingLatch.countDown();
+        verify(recordingService, timeout(5000)).storeRecording(sessionInfo);
+        verify(dockerService, timeout(5000)).stopAndRemoveContainer("hub-1");
+        verify(dockerService, timeout(5000)).stopAndRemoveContainer("novnc-1");
+    }
+
+    @AfterAll
+    void teardown() throws Exception {
+        sessionService.teardown();
+    }
+
+}
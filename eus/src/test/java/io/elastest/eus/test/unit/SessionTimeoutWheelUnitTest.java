@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.session.SessionTimeoutWheel;
+
+/**
+ * Tests for session timeout wheel.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for session timeout wheel")
+public class SessionTimeoutWheelUnitTest {
+
+    SessionTimeoutWheel timeoutWheel;
+    Set<SessionInfo> expiredSessions = ConcurrentHashMap.newKeySet();
+    CountDownLatch expiredLatch = new CountDownLatch(1);
+
+    @BeforeAll
+    void setup() {
+        // Small wheel (10 ms tick, 8 buckets) to test several rounds
+        timeoutWheel = new SessionTimeoutWheel(10, 8, Runnable::run,
+                sessionInfo -> {
+                    expiredSessions.add(sessionInfo);
+                    expiredLatch.countDown();
+                });
+        timeoutWheel.start();
+    }
+
+    @Test
+    @DisplayName("Idle sessions expire, active and removed sessions do not")
+    void testTimeouts() throws Exception {
+        SessionInfo activeSession = new SessionInfo();
+        SessionInfo idleSession = new SessionInfo();
+        SessionInfo removedSession = new SessionInfo();
+        timeoutWheel.add(activeSession, 200);
+        timeoutWheel.add(idleSession, 200);
+        timeoutWheel.add(removedSession, 200);
+        timeoutWheel.remove(removedSession);
+
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(50);
+            timeoutWheel.touch(activeSession);
+        }
+
+        assertTrue(expiredLatch.await(5, SECONDS));
+        assertTrue(expiredSessions.contains(idleSession));
+        assertFalse(expiredSessions.contains(activeSession));
+        assertFalse(expiredSessions.contains(removedSession));
+        assertEquals(1, timeoutWheel.size());
+    }
+
+    @AfterAll
+    void teardown() {
+        timeoutWheel.close();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static org.apache.commons.compress.archivers.tar.TarArchiveOutputStream.BIGNUMBER_POSIX;
+import static org.apache.commons.compress.archivers.tar.TarArchiveOutputStream.LONGFILE_POSIX;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.elastest.eus.docker.DockerException;
+import io.elastest.eus.docker.TarExtractor;
+
+/**
+ * Tests for streaming tar extractor.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@Tag("unit")
+@DisplayName("Unit tests for tar extractor")
+public class TarExtractorUnitTest {
+
+    byte[] tar(String fileName, byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+            tar.setLongFileMode(LONGFILE_POSIX);
+            tar.setBigNumberMode(BIGNUMBER_POSIX);
+            tar.putArchiveEntry(new TarArchiveEntry("tmp/"));
+            tar.closeArchiveEntry();
+            addEntry(tar, "tmp/other.txt", "other".getBytes());
+            addEntry(tar, fileName, content);
+        }
+        return out.toByteArray();
+    }
+
+    void addEntry(TarArchiveOutputStream tar, String name, byte[] content)
+            throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    @Test
+    @DisplayName("Extract file (including long names)")
+    void testExtract() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(0).nextBytes(content);
+        Path target = Files.createTempFile("recording", ".mp4");
+        try {
+            for (String name : new String[] { "tmp/recording.mp4",
+                    new String(new char[120]).replace('\0', 'x')
+                            + "/recording.mp4" }) {
+                long size = new TarExtractor(
+                        new ByteArrayInputStream(tar(name, content)))
+                                .extract("recording.mp4", target);
+                assertEquals(content.length, size);
+                assertArrayEquals(content, Files.readAllBytes(target));
+            }
+        } finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    @DisplayName("Seek file and read it from the stream")
+    void testSeek() throws IOException {
+        byte[] content = "content".getBytes();
+        InputStream inputStream = new ByteArrayInputStream(
+                tar("tmp/recording.mp4", content));
+        long size = new TarExtractor(inputStream).seek("recording.mp4");
+        assertEquals(content.length, size);
+
+        byte[] read = new byte[(int) size];
+        IOUtils.readFully(inputStream, read);
+        assertArrayEquals(content, read);
+    }
+
+    @Test
+    @DisplayName("Truncated file is not left in the target path")
+    void testTruncated() throws IOException {
+        byte[] tar = tar("tmp/recording.mp4", new byte[100_000]);
+        byte[] truncated = Arrays.copyOf(tar, tar.length / 2);
+        Path folder = Files.createTempDirectory("eus-tar");
+        try {
+            Path target = folder.resolve("recording.mp4");
+            assertThrows(EOFException.class,
+                    () -> new TarExtractor(
+                            new ByteArrayInputStream(truncated))
+                                    .extract("recording.mp4", target));
+            try (Stream<Path> files = Files.list(folder)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            FileUtils.deleteDirectory(folder.toFile());
+        }
+    }
+
+    @Test
+    @DisplayName("File not found in tar archive")
+    void testNotFound() throws IOException {
+        byte[] tar = tar("tmp/recording.mp4", new byte[10]);
+        assertThrows(DockerException.class,
+                () -> new TarExtractor(new ByteArrayInputStream(tar))
+                        .extract("other.mp4", Paths.get("other.mp4")));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.FieldSetter;
+
+import io.elastest.eus.service.DockerService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.SessionService;
+import io.elastest.eus.service.VncService;
+import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.test.util.MockitoExtension;
+
+/**
+ * Tests for noVNC containers.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@ExtendWith(MockitoExtension.class)
+@Tag("unit")
+@DisplayName("Unit tests for VNC Service")
+public class VncUnitTest {
+
+    @InjectMocks
+    VncService vncService;
+
+    @Mock
+    DockerService dockerService;
+
+    @Mock
+    SessionService sessionService;
+
+    @Mock
+    MetricsService metricsService;
+
+    void setField(String fieldName, Object value) throws Exception {
+        FieldSetter.setField(vncService,
+                VncService.class.getDeclaredField(fieldName), value);
+    }
+
+    @Test
+    @DisplayName("Pending starts fail when the service is shut down")
+    void testShutdown() throws Exception {
+        // Values injected with Spring properties
+        setField("eusContainerPrefix", "eus-");
+        setField("noVncContainerSufix", "novnc-");
+        setField("vncStartThreads", 1);
+        setField("vncStartQueueSize", 1);
+        Method postConstruct = VncService.class
+                .getDeclaredMethod("postConstruct");
+        postConstruct.setAccessible(true);
+        postConstruct.invoke(vncService);
+
+        // The first start is in progress, and the second one is queued
+        CountDownLatch starting = new CountDownLatch(1);
+        when(dockerService.generateContainerName(anyString()))
+                .thenAnswer(invocation -> {
+                    starting.countDown();
+                    new CountDownLatch(1).await();
+                    return "novnc-1";
+                });
+        CompletableFuture<Void> started = vncService
+                .startVncContainerAsync(new SessionInfo());
+        assertTrue(starting.await(5, SECONDS));
+        CompletableFuture<Void> queued = vncService
+                .startVncContainerAsync(new SessionInfo());
+
+        vncService.teardown();
+        CompletableFuture<Void> rejected = vncService
+                .startVncContainerAsync(new SessionInfo());
+
+        for (CompletableFuture<Void> future : asList(started, queued,
+                rejected)) {
+            assertThrows(ExecutionException.class,
+                    () -> future.get(5, SECONDS));
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.elastest.eus.test.unit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import io.elastest.eus.service.HubClientService;
+import io.elastest.eus.service.JsonService;
+import io.elastest.eus.service.MetricsService;
+import io.elastest.eus.service.SessionService;
+import io.elastest.eus.service.WebDriverService;
+import io.elastest.eus.session.RevisionLog;
+import io.elastest.eus.session.SessionInfo;
+import io.elastest.eus.test.benchmark.BenchmarkUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for WebDriver commands streamed to hubs.
+ *
+ * @author Boni Garcia (boni.garcia@urjc.es)
+ * @since 0.1.1
+ */
+@TestInstance(PER_CLASS)
+@Tag("unit")
+@DisplayName("Unit tests for WebDriver proxy")
+public class WebDriverProxyUnitTest {
+
+    static final String SESSION_ID = "8b5c4d3e-2f1a-4b6c-9d8e-7f6a5b4c3d2e";
+    static final String HUB_RESPONSE = "{\"status\": 0, \"value\": "
+            + "\"http://elastest.io/\"}";
+
+    WireMockServer stubHub;
+    HubClientService hubClientService;
+    WebDriverService webDriverService;
+    String contextPath;
+
+    @BeforeAll
+    void setup() throws Exception {
+        stubHub = new WireMockServer(options().dynamicPort());
+        stubHub.start();
+        stubHub.stubFor(get(urlEqualTo("/wd/hub/session/" + SESSION_ID
+                + "/url")).willReturn(aResponse().withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("X-Hub", "hub-1")
+                        .withBody(HUB_RESPONSE)));
+
+        // Values injected with Spring properties
+        JsonService jsonService = new JsonService();
+        BenchmarkUtils.injectValues(jsonService);
+        hubClientService = new HubClientService();
+        BenchmarkUtils.injectValues(hubClientService);
+        hubClientService.postConstruct();
+        MetricsService metricsService = new MetricsService(
+                new SimpleMeterRegistry());
+        SessionService sessionService = new SessionService(null, jsonService,
+                null, metricsService, new RevisionLog(1000));
+        BenchmarkUtils.injectValues(sessionService);
+
+        // Live session, so that session timer is not used
+        SessionInfo sessionInfo = new SessionInfo();
+        sessionInfo.setSessionId(SESSION_ID);
+        sessionInfo.setLiveSession(true);
+        sessionInfo.setHubUrl(
+                "http://localhost:" + stubHub.port() + "/wd/hub");
+        sessionService.putSession(SESSION_ID, sessionInfo);
+
+        webDriverService = new WebDriverService(null, hubClientService, null,
+                jsonService, sessionService, null, null, metricsService);
+        BenchmarkUtils.injectValues(webDriverService);
+        BenchmarkUtils.setField(webDriverService, "hubProxyStreaming", true);
+        contextPath = BenchmarkUtils
+                .getProperty("server.servlet.context-path");
+    }
+
+    @Test
+    @DisplayName("Request and response headers are proxied")
+    void testHeaders() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                contextPath + "/session/" + SESSION_ID + "/url");
+        request.addHeader("Accept", "application/json");
+        request.addHeader("X-Client", "client-1");
+        request.addHeader("Connection", "close");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertNull(webDriverService.session(request, response));
+        assertEquals(200, response.getStatus());
+        assertEquals(HUB_RESPONSE, response.getContentAsString());
+        assertEquals("application/json", response.getContentType());
+        assertEquals("hub-1", response.getHeader("X-Hub"));
+
+        // Headers of the connection with the client are not proxied
+        stubHub.verify(getRequestedFor(
+                urlEqualTo("/wd/hub/session/" + SESSION_ID + "/url"))
+                        .withHeader("Accept", equalTo("application/json"))
+                        .withHeader("X-Client", equalTo("client-1"))
+                        .withHeader("Host",
+                                equalTo("localhost:" + stubHub.port())));
+        assertEquals(0, stubHub.findAll(getRequestedFor(urlEqualTo(
+                "/wd/hub/session/" + SESSION_ID + "/url"))
+                        .withHeader("Connection", equalTo("close")))
+                .size());
+    }
+
+    @AfterAll
+    void teardown() throws Exception {
+        hubClientService.teardown();
+        stubHub.stop();
+    }
+
+}